@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.peterkuterna.android.apps.devoxxsched.io;
+
+import static org.codehaus.jackson.JsonToken.FIELD_NAME;
+import static org.codehaus.jackson.JsonToken.START_OBJECT;
+import static org.codehaus.jackson.JsonToken.VALUE_NUMBER_INT;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import net.peterkuterna.android.apps.devoxxsched.util.Lists;
+
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+
+/**
+ * {@link JsonHandler} for a feed that the backend can also serve as a delta:
+ * an object holding the {@code changed} entries, in the format of the full
+ * feed, and the ids of the {@code removed} entries. Unlike with a full feed,
+ * entries missing from a delta are left alone.
+ */
+public abstract class DeltaJsonHandler extends JsonHandler {
+
+	private final boolean mDelta;
+
+	/**
+	 * @param delta
+	 *            if the parsed document is a delta rather than the full feed
+	 */
+	public DeltaJsonHandler(String authority, SyncSnapshot snapshot,
+			boolean delta) {
+		super(authority, snapshot);
+		mDelta = delta;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public final ArrayList<ContentProviderOperation> parse(JsonParser parser,
+			ContentResolver resolver) throws JsonParseException, IOException {
+		if (!mDelta) {
+			return parseFull(parser, resolver);
+		}
+
+		final ArrayList<ContentProviderOperation> batch = Lists.newArrayList();
+		String fieldName = null;
+		JsonToken token;
+		while ((token = parser.nextToken()) != null) {
+			if (token == FIELD_NAME) {
+				fieldName = parser.getCurrentName();
+			} else if (token == START_OBJECT
+					&& DeltaFields.CHANGED.equals(fieldName)) {
+				parseDeltaEntry(parser, batch);
+				applyIfFull(batch, resolver);
+			} else if (token == VALUE_NUMBER_INT
+					&& DeltaFields.REMOVED.equals(fieldName)) {
+				batch.add(newDeltaRemoval(parser.getIntValue()));
+				applyIfFull(batch, resolver);
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Parse the full feed, like {@link JsonHandler#parse}.
+	 */
+	protected abstract ArrayList<ContentProviderOperation> parseFull(
+			JsonParser parser, ContentResolver resolver)
+			throws JsonParseException, IOException;
+
+	/**
+	 * Parse a single changed entry of a delta document, positioned on its
+	 * start.
+	 */
+	protected abstract void parseDeltaEntry(JsonParser parser,
+			ArrayList<ContentProviderOperation> batch)
+			throws JsonParseException, IOException;
+
+	/**
+	 * Build the operation removing the entry with the given id of a delta
+	 * document.
+	 */
+	protected abstract ContentProviderOperation newDeltaRemoval(int id);
+
+	private interface DeltaFields {
+		String CHANGED = "changed";
+		String REMOVED = "removed";
+	}
+
+}
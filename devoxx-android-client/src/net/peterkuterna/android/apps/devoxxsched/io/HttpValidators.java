@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.peterkuterna.android.apps.devoxxsched.io;
+
+import java.net.URI;
+
+import net.peterkuterna.android.apps.devoxxsched.util.ParserUtils;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persistent store of the HTTP cache validators ({@code ETag} and
+ * {@code Last-Modified}) of remote resources, used to turn requests into
+ * conditional requests.
+ * <p>
+ * Validators are kept per resource path, ignoring the query string, so
+ * requests with a changing query (like the twitter search) overwrite each
+ * other instead of piling up. They are only sent when the full url matches.
+ */
+public class HttpValidators {
+
+	private static final String PREFS_NAME = "http_validators";
+
+	private static final String HEADER_ETAG = "ETag";
+	private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+	private static final String SUFFIX_URL = "_url";
+	private static final String SUFFIX_ETAG = "_etag";
+	private static final String SUFFIX_LAST_MODIFIED = "_last_modified";
+
+	private final SharedPreferences mPrefs;
+
+	public HttpValidators(Context context) {
+		mPrefs = context.getSharedPreferences(PREFS_NAME,
+				Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Add the conditional headers to the given request, when validators were
+	 * stored for its url.
+	 */
+	public void addConditionalHeaders(HttpUriRequest request) {
+		final String url = request.getURI().toString();
+		final String key = buildKey(request.getURI());
+		if (!url.equals(mPrefs.getString(key + SUFFIX_URL, null))) {
+			return;
+		}
+
+		final String etag = mPrefs.getString(key + SUFFIX_ETAG, null);
+		if (etag != null) {
+			request.setHeader(HEADER_IF_NONE_MATCH, etag);
+		}
+		final String lastModified = mPrefs.getString(key
+				+ SUFFIX_LAST_MODIFIED, null);
+		if (lastModified != null) {
+			request.setHeader(HEADER_IF_MODIFIED_SINCE, lastModified);
+		}
+	}
+
+	/**
+	 * Store the validators of a response that has been handled successfully.
+	 * When the response has no validators, previous ones are removed.
+	 */
+	public void store(HttpUriRequest request, HttpResponse response) {
+		final String key = buildKey(request.getURI());
+		final String etag = getHeaderValue(response, HEADER_ETAG);
+		final String lastModified = getHeaderValue(response,
+				HEADER_LAST_MODIFIED);
+
+		final SharedPreferences.Editor editor = mPrefs.edit();
+		if (etag == null && lastModified == null) {
+			editor.remove(key + SUFFIX_URL);
+		} else {
+			editor.putString(key + SUFFIX_URL, request.getURI().toString());
+		}
+		putOrRemove(editor, key + SUFFIX_ETAG, etag);
+		putOrRemove(editor, key + SUFFIX_LAST_MODIFIED, lastModified);
+		editor.commit();
+	}
+
+	private static String buildKey(URI uri) {
+		return ParserUtils.sanitizeId(uri.getHost() + uri.getPath());
+	}
+
+	private static String getHeaderValue(HttpResponse response, String name) {
+		final Header header = response.getFirstHeader(name);
+		return header != null ? header.getValue() : null;
+	}
+
+	private static void putOrRemove(SharedPreferences.Editor editor,
+			String key, String value) {
+		if (value != null) {
+			editor.putString(key, value);
+		} else {
+			editor.remove(key);
+		}
+	}
+
+}
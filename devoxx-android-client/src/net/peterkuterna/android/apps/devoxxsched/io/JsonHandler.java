@@ -18,6 +18,9 @@ package net.peterkuterna.android.apps.devoxxsched.io;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+
+import net.peterkuterna.android.apps.devoxxsched.util.UIUtils;
 
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
@@ -26,6 +29,8 @@ import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.OperationApplicationException;
+import android.database.DatabaseUtils;
+import android.net.Uri;
 import android.os.RemoteException;
 
 /**
@@ -35,11 +40,33 @@ import android.os.RemoteException;
  * {@link ContentProvider} exceptions are considered unrecoverable.
  * <p>
  * This class is only designed to handle simple one-way synchronization.
+ * <p>
+ * Handlers parsing large feeds can call {@link #applyIfFull} between entries
+ * so the operations are applied in bounded chunks while parsing continues,
+ * instead of being collected into one batch and one long transaction. A
+ * feed is then no longer applied atomically: when a sync fails halfway, the
+ * chunks already applied stay, and the feed is applied again by the next
+ * sync. Entries missing from a full feed are therefore only deleted by the
+ * last chunk, see {@link #newDeleteMissing}, so a failed sync never removes
+ * or marks rows it didn't get to.
  */
 public abstract class JsonHandler extends BaseHandler {
 
+	/**
+	 * Number of {@link ContentProviderOperation} after which
+	 * {@link #applyIfFull} applies the pending batch.
+	 */
+	protected static final int BATCH_CHUNK_SIZE = 200;
+
+	protected final SyncSnapshot mSnapshot;
+
 	public JsonHandler(String authority) {
+		this(authority, null);
+	}
+
+	public JsonHandler(String authority, SyncSnapshot snapshot) {
 		super(authority);
+		mSnapshot = snapshot;
 	}
 
 	/**
@@ -52,13 +79,79 @@ public abstract class JsonHandler extends BaseHandler {
 		try {
 			final ArrayList<ContentProviderOperation> batch = parse(parser,
 					resolver);
-			resolver.applyBatch(mAuthority, batch);
+			applyBatch(batch, resolver);
+			if (mSnapshot != null) {
+				mSnapshot.invalidate();
+			}
 		} catch (HandlerException e) {
 			throw e;
 		} catch (JsonParseException e) {
 			throw new HandlerException("Problem parsing Json response", e);
 		} catch (IOException e) {
 			throw new HandlerException("Problem reading response", e);
+		}
+	}
+
+	/**
+	 * Apply and clear the given batch when it holds at least
+	 * {@link #BATCH_CHUNK_SIZE} operations. Call this only between complete
+	 * entries, so that an entry is never split over two transactions.
+	 */
+	protected void applyIfFull(ArrayList<ContentProviderOperation> batch,
+			ContentResolver resolver) {
+		if (batch.size() >= BATCH_CHUNK_SIZE) {
+			applyBatch(batch, resolver);
+		}
+	}
+
+	/**
+	 * Build the operation deleting the rows of the given {@link Uri} whose
+	 * id column holds none of the given ids, the entries missing from a full
+	 * feed. Add it to the batch returned by {@link #parse}, so it only runs
+	 * once all other chunks were applied.
+	 */
+	protected static ContentProviderOperation newDeleteMissing(Uri uri,
+			String idColumn, Collection<String> ids) {
+		final StringBuilder selection = new StringBuilder();
+		selection.append(idColumn).append(" NOT IN (");
+		boolean first = true;
+		for (String id : ids) {
+			if (id == null) {
+				continue;
+			}
+			if (!first) {
+				selection.append(',');
+			}
+			selection.append(DatabaseUtils.sqlEscapeString(id));
+			first = false;
+		}
+		selection.append(')');
+		return ContentProviderOperation.newDelete(uri)
+				.withSelection(selection.toString(), null).build();
+	}
+
+	/**
+	 * Mark the given operation as a point where {@link ContentProvider} may
+	 * yield its transaction to waiting readers. Only supported from Froyo
+	 * onwards.
+	 */
+	protected static ContentProviderOperation.Builder withYieldAllowed(
+			ContentProviderOperation.Builder builder) {
+		if (UIUtils.isFroyo()) {
+			builder.withYieldAllowed(true);
+		}
+		return builder;
+	}
+
+	private void applyBatch(ArrayList<ContentProviderOperation> batch,
+			ContentResolver resolver) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		try {
+			resolver.applyBatch(mAuthority, batch);
+			batch.clear();
 		} catch (RemoteException e) {
 			throw new RuntimeException("Problem applying batch operation", e);
 		} catch (OperationApplicationException e) {
@@ -69,7 +162,9 @@ public abstract class JsonHandler extends BaseHandler {
 	/**
 	 * Parse the given {@link JsonParser}, returning a set of
 	 * {@link ContentProviderOperation} that will bring the
-	 * {@link ContentProvider} into sync with the parsed data.
+	 * {@link ContentProvider} into sync with the parsed data. Any operations
+	 * already applied through {@link #applyIfFull} are not part of the
+	 * returned set.
 	 */
 	public abstract ArrayList<ContentProviderOperation> parse(
 			JsonParser parser, ContentResolver resolver)
@@ -61,6 +61,7 @@ public class ParleysPresentationsHandler extends JsonHandler {
 		while ((token = parser.nextToken()) != END_ARRAY) {
 			if (token == START_OBJECT) {
 				parsePresentation(parser, batch, resolver);
+				applyIfFull(batch, resolver);
 			}
 		}
 
@@ -114,7 +115,7 @@ public class ParleysPresentationsHandler extends JsonHandler {
 		}
 
 		if (totalViews > 0) {
-			batch.add(operation.build());
+			batch.add(withYieldAllowed(operation).build());
 
 			final Uri parleysTagsUri = ParleysPresentations
 					.buildTagsDirUri(presentationId);
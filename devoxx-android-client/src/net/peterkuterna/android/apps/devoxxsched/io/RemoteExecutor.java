@@ -17,8 +17,18 @@
 
 package net.peterkuterna.android.apps.devoxxsched.io;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import net.peterkuterna.android.apps.devoxxsched.io.BaseHandler.HandlerException;
 import net.peterkuterna.android.apps.devoxxsched.util.JsonHandlerUtils;
@@ -32,18 +42,38 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
 
 import android.content.ContentResolver;
+import android.util.Log;
 
 /**
  * Executes an {@link HttpUriRequest} and passes the result as an
  * {@link JsonParser} to the given {@link JsonHandler}.
+ * <p>
+ * Requests can also be downloaded ahead of time on an
+ * {@link ExecutorService} with {@link #submitGet}, and parsed later with
+ * {@link #execute(Future, JsonHandler)}. This allows several feeds to be
+ * downloaded concurrently while still applying them one after another.
+ * <p>
+ * When created with {@link HttpValidators}, requests are made conditional.
+ * A {@code 304 Not Modified} response skips the handler entirely.
  */
 public class RemoteExecutor {
+	private static final String TAG = "RemoteExecutor";
+
+	private static final int BUFFER_SIZE = 8192;
+
 	private final HttpClient mHttpClient;
 	private final ContentResolver mResolver;
+	private final HttpValidators mValidators;
 
 	public RemoteExecutor(HttpClient httpClient, ContentResolver resolver) {
+		this(httpClient, resolver, null);
+	}
+
+	public RemoteExecutor(HttpClient httpClient, ContentResolver resolver,
+			HttpValidators validators) {
 		mHttpClient = httpClient;
 		mResolver = resolver;
+		mValidators = validators;
 	}
 
 	/**
@@ -63,12 +93,9 @@ public class RemoteExecutor {
 	public void execute(HttpUriRequest request, JsonHandler handler)
 			throws HandlerException {
 		try {
-			final HttpResponse resp = mHttpClient.execute(request);
-			final int status = resp.getStatusLine().getStatusCode();
-			if (status != HttpStatus.SC_OK) {
-				throw new HandlerException("Unexpected server response "
-						+ resp.getStatusLine() + " for "
-						+ request.getRequestLine());
+			final HttpResponse resp = executeRequest(request, true);
+			if (resp == null) {
+				return;
 			}
 
 			final InputStream input = resp.getEntity().getContent();
@@ -82,11 +109,199 @@ public class RemoteExecutor {
 				if (input != null)
 					input.close();
 			}
+			storeValidators(request, resp);
+		} catch (HandlerException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new HandlerException("Problem reading remote response for "
+					+ request.getRequestLine(), e);
+		}
+	}
+
+	/**
+	 * Start a {@link HttpGet} request on the given {@link ExecutorService},
+	 * spooling the response into a temporary file inside {@code dir}. Pass
+	 * the returned {@link Future} to {@link #execute(Future, JsonHandler)} to
+	 * parse it, or to {@link #discard(Future)} when it is no longer needed.
+	 */
+	public Future<Download> submitGet(ExecutorService executor,
+			final String url, final File dir) {
+		return submitGet(executor, url, dir, true);
+	}
+
+	/**
+	 * Like {@link #submitGet(ExecutorService, String, File)}, but the request
+	 * is only made conditional when asked to. An unconditional request always
+	 * gets a response to parse, even when the resource was not modified.
+	 */
+	public Future<Download> submitGet(ExecutorService executor,
+			final String url, final File dir, final boolean conditional) {
+		return executor.submit(new Callable<Download>() {
+			public Download call() throws Exception {
+				return download(new HttpGet(url), dir, conditional);
+			}
+		});
+	}
+
+	/**
+	 * Wait for a download started through {@link #submitGet} and pass the
+	 * response through
+	 * {@link JsonHandler#parseAndApply(JsonParser, ContentResolver)}. The
+	 * temporary file is deleted afterwards.
+	 */
+	public void execute(Future<Download> future, JsonHandler handler)
+			throws HandlerException {
+		final Download download = await(future);
+		final File file = download.mFile;
+		if (file == null) {
+			return;
+		}
+
+		try {
+			final InputStream input = new FileInputStream(file);
+			try {
+				final JsonParser parser = JsonHandlerUtils.newJsonParser(input);
+				handler.parseAndApply(parser, mResolver);
+			} catch (JsonParseException e) {
+				throw new HandlerException("Malformed response for "
+						+ download.mRequest.getRequestLine(), e);
+			} finally {
+				input.close();
+			}
+			storeValidators(download.mRequest, download.mResponse);
+		} catch (HandlerException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new HandlerException("Problem reading downloaded response "
+					+ file, e);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Cancel a download started through {@link #submitGet}, deleting its
+	 * temporary file when it already completed.
+	 */
+	public void discard(Future<Download> future) {
+		if (!future.cancel(true) && !future.isCancelled()) {
+			try {
+				final File file = future.get().mFile;
+				if (file != null) {
+					file.delete();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// Nothing was written
+			}
+		}
+	}
+
+	/**
+	 * Execute the request, returning the response when it has to be handled
+	 * or {@code null} when the resource was not modified.
+	 */
+	private HttpResponse executeRequest(HttpUriRequest request,
+			boolean conditional) throws IOException {
+		if (mValidators != null && conditional) {
+			mValidators.addConditionalHeaders(request);
+		}
+
+		final HttpResponse resp = mHttpClient.execute(request);
+		final int status = resp.getStatusLine().getStatusCode();
+		if (status == HttpStatus.SC_NOT_MODIFIED && mValidators != null) {
+			Log.d(TAG, "Not modified: " + request.getRequestLine());
+			return null;
+		}
+		if (status != HttpStatus.SC_OK) {
+			throw new HandlerException("Unexpected server response "
+					+ resp.getStatusLine() + " for "
+					+ request.getRequestLine());
+		}
+		return resp;
+	}
+
+	private void storeValidators(HttpUriRequest request, HttpResponse resp) {
+		if (mValidators != null) {
+			mValidators.store(request, resp);
+		}
+	}
+
+	private Download await(Future<Download> future) throws HandlerException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HandlerException("Interrupted while downloading", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof HandlerException) {
+				throw (HandlerException) cause;
+			}
+			throw new HandlerException("Problem downloading remote response",
+					cause);
+		}
+	}
+
+	private Download download(HttpUriRequest request, File dir,
+			boolean conditional) throws HandlerException {
+		File file = null;
+		try {
+			final HttpResponse resp = executeRequest(request, conditional);
+			if (resp == null) {
+				return new Download(request, null, null);
+			}
+
+			file = File.createTempFile("remote", ".json", dir);
+			final InputStream input = resp.getEntity().getContent();
+			try {
+				final OutputStream output = new BufferedOutputStream(
+						new FileOutputStream(file), BUFFER_SIZE);
+				try {
+					final byte[] buffer = new byte[BUFFER_SIZE];
+					int count;
+					while ((count = input.read(buffer)) != -1) {
+						if (Thread.interrupted()) {
+							throw new InterruptedIOException();
+						}
+						output.write(buffer, 0, count);
+					}
+				} finally {
+					output.close();
+				}
+			} finally {
+				if (input != null)
+					input.close();
+			}
+			return new Download(request, resp, file);
 		} catch (HandlerException e) {
 			throw e;
 		} catch (IOException e) {
+			if (file != null) {
+				file.delete();
+			}
+			request.abort();
 			throw new HandlerException("Problem reading remote response for "
 					+ request.getRequestLine(), e);
 		}
 	}
+
+	/**
+	 * Result of a request started through {@link RemoteExecutor#submitGet}.
+	 * Holds no file when the resource was not modified.
+	 */
+	public static class Download {
+		private final HttpUriRequest mRequest;
+		private final HttpResponse mResponse;
+		private final File mFile;
+
+		private Download(HttpUriRequest request, HttpResponse response,
+				File file) {
+			mRequest = request;
+			mResponse = response;
+			mFile = file;
+		}
+	}
+
 }
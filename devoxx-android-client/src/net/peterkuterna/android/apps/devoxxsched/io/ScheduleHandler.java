@@ -27,6 +27,7 @@ import static org.codehaus.jackson.JsonToken.VALUE_STRING;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Blocks;
@@ -34,6 +35,7 @@ import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Rooms;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Sessions;
 import net.peterkuterna.android.apps.devoxxsched.util.Lists;
 import net.peterkuterna.android.apps.devoxxsched.util.ParserUtils;
+import net.peterkuterna.android.apps.devoxxsched.util.Sets;
 
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
@@ -41,7 +43,6 @@ import org.codehaus.jackson.JsonToken;
 
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.database.Cursor;
 import android.net.Uri;
 
 /**
@@ -50,8 +51,8 @@ import android.net.Uri;
  */
 public class ScheduleHandler extends JsonHandler {
 
-	public ScheduleHandler() {
-		super(CfpContract.CONTENT_AUTHORITY);
+	public ScheduleHandler(SyncSnapshot snapshot) {
+		super(CfpContract.CONTENT_AUTHORITY, snapshot);
 	}
 
 	/** {@inheritDoc} */
@@ -60,43 +61,32 @@ public class ScheduleHandler extends JsonHandler {
 			ContentResolver resolver) throws JsonParseException, IOException {
 		final ArrayList<ContentProviderOperation> batch = Lists.newArrayList();
 
-		batch.add(ContentProviderOperation.newUpdate(Blocks.CONTENT_URI)
-				.withValue(Blocks.DELETED, CfpContract.MARK_AS_DELETED).build());
-		batch.add(ContentProviderOperation.newUpdate(Sessions.CONTENT_URI)
-				.withValue(Sessions.DELETED, CfpContract.MARK_AS_DELETED)
-				.build());
-
+		final HashSet<String> sessionIds = Sets.newHashSet();
+		final HashSet<String> blockIds = Sets.newHashSet();
 		JsonToken token;
 		while ((token = parser.nextToken()) != END_ARRAY) {
 			if (token == START_OBJECT) {
-				parseSchedule(parser, batch, resolver);
+				parseSchedule(parser, batch, mSnapshot, sessionIds, blockIds);
+				applyIfFull(batch, resolver);
 			}
 		}
 
-		batch.add(ContentProviderOperation
-				.newDelete(Sessions.CONTENT_URI)
-				.withSelection(
-						Sessions.DELETED + "=?",
-						new String[] { String
-								.valueOf(CfpContract.MARK_AS_DELETED) })
-				.build());
-		batch.add(ContentProviderOperation
-				.newDelete(Blocks.CONTENT_URI)
-				.withSelection(
-						Blocks.DELETED + "=?",
-						new String[] { String
-								.valueOf(CfpContract.MARK_AS_DELETED) })
-				.build());
+		batch.add(newDeleteMissing(Sessions.CONTENT_URI, Sessions.SESSION_ID,
+				sessionIds));
+		batch.add(newDeleteMissing(Blocks.CONTENT_URI, Blocks.BLOCK_ID,
+				blockIds));
 
 		return batch;
 	}
 
 	/**
 	 * Parse a given {@link Rooms} entry, building
-	 * {@link ContentProviderOperation} to define it locally.
+	 * {@link ContentProviderOperation} to define it locally. The ids of the
+	 * session and block it refers to are added to the given sets.
 	 */
 	private static void parseSchedule(JsonParser parser,
-			ArrayList<ContentProviderOperation> batch, ContentResolver resolver)
+			ArrayList<ContentProviderOperation> batch, SyncSnapshot snapshot,
+			HashSet<String> sessionIds, HashSet<String> blockIds)
 			throws JsonParseException, IOException {
 		String sessionId = null;
 		long startTime = 0;
@@ -140,9 +130,11 @@ public class ScheduleHandler extends JsonHandler {
 		}
 
 		final String blockId = findOrCreateBlock(kind, code, type, startTime,
-				endTime, batch, resolver);
+				endTime, batch, snapshot);
+		blockIds.add(blockId);
 
 		if (sessionId != null) {
+			sessionIds.add(sessionId);
 			final Uri sessionUri = Sessions.buildSessionUri(sessionId);
 
 			ContentProviderOperation.Builder builder = ContentProviderOperation
@@ -161,14 +153,14 @@ public class ScheduleHandler extends JsonHandler {
 	 */
 	private static String findOrCreateBlock(String kind, String code,
 			String type, long startTime, long endTime,
-			ArrayList<ContentProviderOperation> batch, ContentResolver resolver) {
+			ArrayList<ContentProviderOperation> batch, SyncSnapshot snapshot) {
 		final String blockId = Blocks.generateBlockId(
 				ParserUtils.isTalk(code) ? type : kind, startTime, endTime);
 
-		if (!isBlockExisting(blockId, resolver)) {
+		if (!snapshot.isBlockExisting(blockId)) {
 			final String title = ParserUtils.isTalk(code) ? type : code;
-			final ContentProviderOperation.Builder builder = ContentProviderOperation
-					.newInsert(Blocks.CONTENT_URI);
+			final ContentProviderOperation.Builder builder = withYieldAllowed(ContentProviderOperation
+					.newInsert(Blocks.CONTENT_URI));
 			builder.withValue(Blocks.BLOCK_ID, blockId);
 			builder.withValue(Blocks.BLOCK_TITLE, title);
 			builder.withValue(Blocks.BLOCK_START, startTime);
@@ -180,8 +172,8 @@ public class ScheduleHandler extends JsonHandler {
 			builder.withValue(Blocks.DELETED, CfpContract.NOT_DELETED);
 			batch.add(builder.build());
 		} else {
-			final ContentProviderOperation.Builder builder = ContentProviderOperation
-					.newUpdate(Blocks.buildBlockUri(blockId));
+			final ContentProviderOperation.Builder builder = withYieldAllowed(ContentProviderOperation
+					.newUpdate(Blocks.buildBlockUri(blockId)));
 			builder.withValue(Blocks.UPDATED, System.currentTimeMillis());
 			builder.withValue(Blocks.DELETED, CfpContract.NOT_DELETED);
 			batch.add(builder.build());
@@ -190,27 +182,6 @@ public class ScheduleHandler extends JsonHandler {
 		return blockId;
 	}
 
-	private static boolean isBlockExisting(String blockId,
-			ContentResolver resolver) {
-		final Uri uri = Blocks.buildBlockUri(blockId);
-		final Cursor cursor = resolver.query(uri, BlocksQuery.PROJECTION, null,
-				null, null);
-		try {
-			return cursor.moveToFirst();
-		} finally {
-			cursor.close();
-		}
-	}
-
-	/**
-	 * {@link Blocks} query parameters.
-	 */
-	private interface BlocksQuery {
-		String[] PROJECTION = { Blocks.BLOCK_ID };
-
-		int BLOCK_ID = 0;
-	}
-
 	private interface Fields {
 
 		interface Schedule {
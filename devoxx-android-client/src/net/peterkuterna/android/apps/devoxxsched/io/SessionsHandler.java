@@ -27,6 +27,7 @@ import static org.codehaus.jackson.JsonToken.VALUE_STRING;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Rooms;
@@ -38,9 +39,9 @@ import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Tags;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Tracks;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.SessionsSpeakers;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.SessionsTags;
-import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.Tables;
 import net.peterkuterna.android.apps.devoxxsched.util.Lists;
 import net.peterkuterna.android.apps.devoxxsched.util.ParserUtils;
+import net.peterkuterna.android.apps.devoxxsched.util.Sets;
 
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
@@ -49,53 +50,72 @@ import org.codehaus.jackson.JsonToken;
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.net.Uri;
 
 /**
  * Handle a local {@link JsonParser} that defines a set of {@link Sessions},
  * {@link Speakers} and {@link Tags} entries.
  */
-public class SessionsHandler extends JsonHandler {
+public class SessionsHandler extends DeltaJsonHandler {
 
-	public SessionsHandler() {
-		super(CfpContract.CONTENT_AUTHORITY);
+	public SessionsHandler(SyncSnapshot snapshot) {
+		this(snapshot, false);
+	}
+
+	/**
+	 * @param delta
+	 *            if the parsed document is a delta, see
+	 *            {@link DeltaJsonHandler}
+	 */
+	public SessionsHandler(SyncSnapshot snapshot, boolean delta) {
+		super(CfpContract.CONTENT_AUTHORITY, snapshot, delta);
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public ArrayList<ContentProviderOperation> parse(JsonParser parser,
-			ContentResolver resolver) throws JsonParseException, IOException {
+	protected ArrayList<ContentProviderOperation> parseFull(
+			JsonParser parser, ContentResolver resolver)
+			throws JsonParseException, IOException {
 		final ArrayList<ContentProviderOperation> batch = Lists.newArrayList();
 
-		batch.add(ContentProviderOperation.newUpdate(Sessions.CONTENT_URI)
-				.withValue(Sessions.DELETED, CfpContract.MARK_AS_DELETED)
-				.build());
-
+		final HashSet<String> sessionIds = Sets.newHashSet();
 		JsonToken token;
 		while ((token = parser.nextToken()) != END_ARRAY) {
 			if (token == START_OBJECT) {
-				parseSession(parser, batch, resolver);
+				sessionIds.add(parseSession(parser, batch, mSnapshot));
+				applyIfFull(batch, resolver);
 			}
 		}
 
-		batch.add(ContentProviderOperation
-				.newDelete(Sessions.CONTENT_URI)
-				.withSelection(
-						Sessions.DELETED + "=?",
-						new String[] { String
-								.valueOf(CfpContract.MARK_AS_DELETED) })
-				.build());
+		batch.add(newDeleteMissing(Sessions.CONTENT_URI, Sessions.SESSION_ID,
+				sessionIds));
 
 		return batch;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected void parseDeltaEntry(JsonParser parser,
+			ArrayList<ContentProviderOperation> batch)
+			throws JsonParseException, IOException {
+		parseSession(parser, batch, mSnapshot);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected ContentProviderOperation newDeltaRemoval(int id) {
+		return ContentProviderOperation.newDelete(
+				Sessions.buildSessionUri(Sessions.generateSessionId(id))).build();
+	}
+
 	/**
 	 * Parse a given {@link Rooms} entry, building
 	 * {@link ContentProviderOperation} to define it locally.
+	 * 
+	 * @return the id of the parsed session
 	 */
-	private static void parseSession(JsonParser parser,
-			ArrayList<ContentProviderOperation> batch, ContentResolver resolver)
+	private static String parseSession(JsonParser parser,
+			ArrayList<ContentProviderOperation> batch, SyncSnapshot snapshot)
 			throws JsonParseException, IOException {
 		final ContentValues values = new ContentValues();
 		final ArrayList<String> speakerIds = Lists.newArrayList();
@@ -150,9 +170,7 @@ public class SessionsHandler extends JsonHandler {
 		final Uri sessionUri = Sessions.buildSessionUri(sessionId);
 
 		ContentProviderOperation.Builder sessionBuilder = null;
-		final ContentValues oldValues = querySessionDetails(sessionUri,
-				resolver);
-		final long localUpdated = oldValues.getAsLong(SyncColumns.UPDATED);
+		final long localUpdated = snapshot.getSessionUpdated(sessionId);
 		if (localUpdated == CfpContract.UPDATED_NEVER) {
 			sessionBuilder = ContentProviderOperation
 					.newInsert(Sessions.CONTENT_URI);
@@ -162,14 +180,14 @@ public class SessionsHandler extends JsonHandler {
 			values.put(Sessions.SESSION_NEW, 0);
 		}
 
-		if (oldValues.containsKey(Sessions.SESSION_STARRED)) {
+		if (localUpdated != CfpContract.UPDATED_NEVER) {
 			values.put(Sessions.SESSION_STARRED,
-					oldValues.getAsInteger(Sessions.SESSION_STARRED));
+					snapshot.isSessionStarred(sessionId) ? 1 : 0);
 		}
 		values.put(Sessions.SESSION_KEYWORDS, keywords.toString());
 		values.put(SyncColumns.UPDATED, System.currentTimeMillis());
 		values.put(SyncColumns.DELETED, CfpContract.NOT_DELETED);
-		batch.add(sessionBuilder.withValues(values).build());
+		batch.add(withYieldAllowed(sessionBuilder).withValues(values).build());
 
 		final Uri sessionSpeakersUri = Sessions.buildSpeakersDirUri(sessionId);
 		batch.add(ContentProviderOperation.newDelete(sessionSpeakersUri)
@@ -193,37 +211,8 @@ public class SessionsHandler extends JsonHandler {
 					.withValue(SessionsTags.SESSION_ID, sessionId)
 					.withValue(SessionsTags.TAG_ID, tagId).build());
 		}
-	}
-
-	private static ContentValues querySessionDetails(Uri uri,
-			ContentResolver resolver) {
-		final ContentValues values = new ContentValues();
-		final Cursor cursor = resolver.query(uri, SessionsQuery.PROJECTION,
-				null, null, null);
-		try {
-			if (cursor.moveToFirst()) {
-				values.put(SyncColumns.UPDATED,
-						cursor.getLong(SessionsQuery.UPDATED));
-				values.put(Sessions.SESSION_STARRED,
-						cursor.getInt(SessionsQuery.STARRED));
-			} else {
-				values.put(SyncColumns.UPDATED, CfpContract.UPDATED_NEVER);
-			}
-		} finally {
-			cursor.close();
-		}
-		return values;
-	}
-
-	/**
-	 * {@link Sessions} query parameters.
-	 */
-	private interface SessionsQuery {
-		String[] PROJECTION = { Tables.SESSIONS + "." + SyncColumns.UPDATED,
-				Sessions.SESSION_STARRED, };
 
-		int UPDATED = 0;
-		int STARRED = 1;
+		return sessionId;
 	}
 
 	private interface Fields {
@@ -27,12 +27,14 @@ import static org.codehaus.jackson.JsonToken.VALUE_STRING;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Rooms;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Speakers;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.SyncColumns;
 import net.peterkuterna.android.apps.devoxxsched.util.Lists;
+import net.peterkuterna.android.apps.devoxxsched.util.Sets;
 
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
@@ -41,53 +43,72 @@ import org.codehaus.jackson.JsonToken;
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.net.Uri;
 
 /**
  * Handle a local {@link JsonHandler} that defines a set of {@link Speakers}
  * entries.
  */
-public class SpeakersHandler extends JsonHandler {
+public class SpeakersHandler extends DeltaJsonHandler {
 
-	public SpeakersHandler() {
-		super(CfpContract.CONTENT_AUTHORITY);
+	public SpeakersHandler(SyncSnapshot snapshot) {
+		this(snapshot, false);
+	}
+
+	/**
+	 * @param delta
+	 *            if the parsed document is a delta, see
+	 *            {@link DeltaJsonHandler}
+	 */
+	public SpeakersHandler(SyncSnapshot snapshot, boolean delta) {
+		super(CfpContract.CONTENT_AUTHORITY, snapshot, delta);
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public ArrayList<ContentProviderOperation> parse(JsonParser parser,
-			ContentResolver resolver) throws JsonParseException, IOException {
+	protected ArrayList<ContentProviderOperation> parseFull(
+			JsonParser parser, ContentResolver resolver)
+			throws JsonParseException, IOException {
 		final ArrayList<ContentProviderOperation> batch = Lists.newArrayList();
 
-		batch.add(ContentProviderOperation.newUpdate(Speakers.CONTENT_URI)
-				.withValue(Speakers.DELETED, CfpContract.MARK_AS_DELETED)
-				.build());
-
+		final HashSet<String> speakerIds = Sets.newHashSet();
 		JsonToken token;
 		while ((token = parser.nextToken()) != END_ARRAY) {
 			if (token == START_OBJECT) {
-				parseSpeaker(parser, batch, resolver);
+				speakerIds.add(parseSpeaker(parser, batch, mSnapshot));
+				applyIfFull(batch, resolver);
 			}
 		}
 
-		batch.add(ContentProviderOperation
-				.newDelete(Speakers.CONTENT_URI)
-				.withSelection(
-						Speakers.DELETED + "=?",
-						new String[] { String
-								.valueOf(CfpContract.MARK_AS_DELETED) })
-				.build());
+		batch.add(newDeleteMissing(Speakers.CONTENT_URI, Speakers.SPEAKER_ID,
+				speakerIds));
 
 		return batch;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected void parseDeltaEntry(JsonParser parser,
+			ArrayList<ContentProviderOperation> batch)
+			throws JsonParseException, IOException {
+		parseSpeaker(parser, batch, mSnapshot);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected ContentProviderOperation newDeltaRemoval(int id) {
+		return ContentProviderOperation.newDelete(
+				Speakers.buildSpeakerUri(Speakers.generateSpeakerId(id))).build();
+	}
+
 	/**
 	 * Parse a given {@link Rooms} entry, building
 	 * {@link ContentProviderOperation} to define it locally.
+	 * 
+	 * @return the id of the parsed speaker
 	 */
-	private static void parseSpeaker(JsonParser parser,
-			ArrayList<ContentProviderOperation> batch, ContentResolver resolver)
+	private static String parseSpeaker(JsonParser parser,
+			ArrayList<ContentProviderOperation> batch, SyncSnapshot snapshot)
 			throws JsonParseException, IOException {
 		final ContentValues values = new ContentValues();
 		String speakerId = null;
@@ -127,9 +148,7 @@ public class SpeakersHandler extends JsonHandler {
 		final Uri speakerUri = Speakers.buildSpeakerUri(speakerId);
 
 		ContentProviderOperation.Builder speakerBuilder = null;
-		final ContentValues oldValues = querySpeakerDetails(speakerUri,
-				resolver);
-		final long localUpdated = oldValues.getAsLong(SyncColumns.UPDATED);
+		final long localUpdated = snapshot.getSpeakerUpdated(speakerId);
 		if (localUpdated == CfpContract.UPDATED_NEVER) {
 			speakerBuilder = ContentProviderOperation
 					.newInsert(Speakers.CONTENT_URI);
@@ -139,34 +158,10 @@ public class SpeakersHandler extends JsonHandler {
 
 		values.put(SyncColumns.UPDATED, System.currentTimeMillis());
 		values.put(SyncColumns.DELETED, CfpContract.NOT_DELETED);
-		batch.add(speakerBuilder.withValues(values).build());
-	}
-
-	private static ContentValues querySpeakerDetails(Uri uri,
-			ContentResolver resolver) {
-		final ContentValues values = new ContentValues();
-		final Cursor cursor = resolver.query(uri, SpeakersQuery.PROJECTION,
-				null, null, null);
-		try {
-			if (cursor.moveToFirst()) {
-				values.put(SyncColumns.UPDATED,
-						cursor.getLong(SpeakersQuery.UPDATED));
-			} else {
-				values.put(SyncColumns.UPDATED, CfpContract.UPDATED_NEVER);
-			}
-		} finally {
-			cursor.close();
-		}
-		return values;
-	}
-
-	/**
-	 * {@link Speakers} query parameters.
-	 */
-	private interface SpeakersQuery {
-		String[] PROJECTION = { SyncColumns.UPDATED };
+		batch.add(withYieldAllowed(speakerBuilder).withValues(values)
+				.build());
 
-		int UPDATED = 0;
+		return speakerId;
 	}
 
 	private interface Fields {
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.peterkuterna.android.apps.devoxxsched.io;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Blocks;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Sessions;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Speakers;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.SyncColumns;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.Tables;
+import net.peterkuterna.android.apps.devoxxsched.util.Maps;
+import net.peterkuterna.android.apps.devoxxsched.util.Sets;
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+/**
+ * Sync-scoped, in-memory index of the local {@link Sessions}, {@link Speakers}
+ * and {@link Blocks} rows. Each table is read with a single query the first
+ * time it is needed, so handlers can look up existing entries without a
+ * {@link ContentResolver} round-trip per parsed row.
+ * <p>
+ * The index is dropped by {@link JsonHandler} every time a batch has been
+ * applied, since that batch may have inserted or deleted rows.
+ */
+public class SyncSnapshot {
+
+	private final ContentResolver mResolver;
+
+	private HashMap<String, Long> mSessionsUpdated;
+	private HashSet<String> mSessionsStarred;
+	private HashMap<String, Long> mSpeakersUpdated;
+	private HashSet<String> mBlocks;
+
+	public SyncSnapshot(ContentResolver resolver) {
+		mResolver = resolver;
+	}
+
+	/**
+	 * Return the {@link SyncColumns#UPDATED} value of the given session, or
+	 * {@link CfpContract#UPDATED_NEVER} when it doesn't exist locally.
+	 */
+	public synchronized long getSessionUpdated(String sessionId) {
+		loadSessions();
+		final Long updated = mSessionsUpdated.get(sessionId);
+		return updated != null ? updated : CfpContract.UPDATED_NEVER;
+	}
+
+	/**
+	 * Check if the given session is currently starred.
+	 */
+	public synchronized boolean isSessionStarred(String sessionId) {
+		loadSessions();
+		return mSessionsStarred.contains(sessionId);
+	}
+
+	/**
+	 * Return the {@link SyncColumns#UPDATED} value of the given speaker, or
+	 * {@link CfpContract#UPDATED_NEVER} when it doesn't exist locally.
+	 */
+	public synchronized long getSpeakerUpdated(String speakerId) {
+		loadSpeakers();
+		final Long updated = mSpeakersUpdated.get(speakerId);
+		return updated != null ? updated : CfpContract.UPDATED_NEVER;
+	}
+
+	/**
+	 * Check if the given block exists locally.
+	 */
+	public synchronized boolean isBlockExisting(String blockId) {
+		loadBlocks();
+		return mBlocks.contains(blockId);
+	}
+
+	/**
+	 * Drop all loaded tables, forcing them to be read again on next access.
+	 */
+	public synchronized void invalidate() {
+		mSessionsUpdated = null;
+		mSessionsStarred = null;
+		mSpeakersUpdated = null;
+		mBlocks = null;
+	}
+
+	private void loadSessions() {
+		if (mSessionsUpdated != null) {
+			return;
+		}
+
+		final HashMap<String, Long> updated = Maps.newHashMap();
+		final HashSet<String> starred = Sets.newHashSet();
+		final Cursor cursor = mResolver.query(Sessions.CONTENT_URI,
+				SessionsQuery.PROJECTION, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				final String sessionId = cursor
+						.getString(SessionsQuery.SESSION_ID);
+				updated.put(sessionId, cursor.getLong(SessionsQuery.UPDATED));
+				if (cursor.getInt(SessionsQuery.STARRED) == 1) {
+					starred.add(sessionId);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		mSessionsUpdated = updated;
+		mSessionsStarred = starred;
+	}
+
+	private void loadSpeakers() {
+		if (mSpeakersUpdated != null) {
+			return;
+		}
+
+		final HashMap<String, Long> updated = Maps.newHashMap();
+		final Cursor cursor = mResolver.query(Speakers.CONTENT_URI,
+				SpeakersQuery.PROJECTION, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				updated.put(cursor.getString(SpeakersQuery.SPEAKER_ID),
+						cursor.getLong(SpeakersQuery.UPDATED));
+			}
+		} finally {
+			cursor.close();
+		}
+		mSpeakersUpdated = updated;
+	}
+
+	private void loadBlocks() {
+		if (mBlocks != null) {
+			return;
+		}
+
+		final HashSet<String> blocks = Sets.newHashSet();
+		final Cursor cursor = mResolver.query(Blocks.CONTENT_URI,
+				BlocksQuery.PROJECTION, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				blocks.add(cursor.getString(BlocksQuery.BLOCK_ID));
+			}
+		} finally {
+			cursor.close();
+		}
+		mBlocks = blocks;
+	}
+
+	/**
+	 * {@link Sessions} query parameters.
+	 */
+	private interface SessionsQuery {
+		String[] PROJECTION = { Tables.SESSIONS + "." + Sessions.SESSION_ID,
+				Tables.SESSIONS + "." + SyncColumns.UPDATED,
+				Sessions.SESSION_STARRED, };
+
+		int SESSION_ID = 0;
+		int UPDATED = 1;
+		int STARRED = 2;
+	}
+
+	/**
+	 * {@link Speakers} query parameters.
+	 */
+	private interface SpeakersQuery {
+		String[] PROJECTION = { Speakers.SPEAKER_ID, SyncColumns.UPDATED };
+
+		int SPEAKER_ID = 0;
+		int UPDATED = 1;
+	}
+
+	/**
+	 * {@link Blocks} query parameters.
+	 */
+	private interface BlocksQuery {
+		String[] PROJECTION = { Blocks.BLOCK_ID };
+
+		int BLOCK_ID = 0;
+	}
+
+}
@@ -412,11 +412,17 @@ public class CfpContract {
 
 		public static final String SEARCH_SNIPPET = "search_snippet";
 
+		/** Position of a search result, best match first. */
+		public static final String SEARCH_RANK = "search_rank";
+
 		/** Default "ORDER BY" clause. */
 		public static final String DEFAULT_SORT = BlocksColumns.BLOCK_START
 				+ " ASC," + SessionsColumns.SESSION_TITLE
 				+ " COLLATE NOCASE ASC";
 
+		/** "ORDER BY" clause for search results, best match first. */
+		public static final String SEARCH_SORT = SEARCH_RANK + " ASC";
+
 		/** Build {@link Uri} for requested {@link #SESSION_ID}. */
 		public static Uri buildSessionUri(String sessionId) {
 			return CONTENT_URI.buildUpon().appendPath(sessionId).build();
@@ -579,12 +585,18 @@ public class CfpContract {
 
 		public static final String SEARCH_SNIPPET = "search_snippet";
 
+		/** Position of a search result, best match first. */
+		public static final String SEARCH_RANK = "search_rank";
+
 		/** Default "ORDER BY" clause. */
 		public static final String DEFAULT_SORT = SpeakersColumns.SPEAKER_FIRSTNAME
 				+ " COLLATE NOCASE ASC, "
 				+ SpeakersColumns.SPEAKER_LASTNAME
 				+ " COLLATE NOCASE ASC";
 
+		/** "ORDER BY" clause for search results, best match first. */
+		public static final String SEARCH_SORT = SEARCH_RANK + " ASC";
+
 		/** Build {@link Uri} for requested {@link #SPEAKER_ID}. */
 		public static Uri buildSpeakerUri(String speakerId) {
 			return CONTENT_URI.buildUpon().appendPath(speakerId).build();
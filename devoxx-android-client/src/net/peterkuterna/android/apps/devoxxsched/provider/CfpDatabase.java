@@ -17,6 +17,10 @@
 
 package net.peterkuterna.android.apps.devoxxsched.provider;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Blocks;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.BlocksColumns;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.NewsColumns;
@@ -36,8 +40,11 @@ import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.TagsColumn
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Tracks;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.TracksColumns;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.TweetsColumns;
+import net.peterkuterna.android.apps.devoxxsched.util.UIUtils;
 import android.app.SearchManager;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
@@ -51,8 +58,28 @@ public class CfpDatabase extends SQLiteOpenHelper {
 
 	private static final int VER_LAUNCH = 21;
 	private static final int VER_ADD_SYNC_COLUMNS_TO_BLOCKS = 22;
+	private static final int VER_INCREMENTAL_CLEANUP = 23;
+	private static final int VER_ADD_SUMMARIES = 24;
+	private static final int VER_COLUMN_SEARCH = 25;
+	private static final int VER_BLOCK_TIMES_INDEX = 26;
+	private static final int VER_SEARCH_UPDATE_WHEN = 27;
+
+	private static final int DATABASE_VERSION = VER_SEARCH_UPDATE_WHEN;
+
+	/**
+	 * First SQLite version supporting FTS4 tables indexing an external
+	 * content table.
+	 */
+	private static final int[] SQLITE_EXTERNAL_CONTENT = { 3, 7, 9 };
+
+	/**
+	 * Asset holding a gzipped, prebuilt copy of the database. It is gzipped
+	 * since pre-Gingerbread devices can't open compressed assets larger than
+	 * 1MB. It isn't shipped, and so not imported, yet.
+	 */
+	public static final String PREBUILT_ASSET = "schedule.db.gz";
 
-	private static final int DATABASE_VERSION = VER_ADD_SYNC_COLUMNS_TO_BLOCKS;
+	private static final String PREBUILT_SCHEMA = "prebuilt";
 
 	public interface Tables {
 		String BLOCKS = "blocks";
@@ -74,12 +101,23 @@ public class CfpDatabase extends SQLiteOpenHelper {
 
 		String SEARCH_SUGGEST = "search_suggest";
 
+		String CLEANUP_CANDIDATES = "cleanup_candidates";
+
+		String BLOCKS_SUMMARY = "blocks_summary";
+		String TRACKS_SUMMARY = "tracks_summary";
+
 		// old tables
 		String NOTES = "notes";
 		String SYNC = "sync";
 		String TYPES = "types";
 
 		// joins
+		String BLOCKS_JOIN_BLOCKS_SUMMARY = "blocks "
+				+ "LEFT OUTER JOIN blocks_summary ON blocks.block_id=blocks_summary.block_id";
+
+		String TRACKS_JOIN_TRACKS_SUMMARY = "tracks "
+				+ "LEFT OUTER JOIN tracks_summary ON tracks.track_id=tracks_summary.track_id";
+
 		String SESSIONS_JOIN_BLOCKS_ROOMS = "sessions "
 				+ "LEFT OUTER JOIN blocks ON sessions.block_id=blocks.block_id "
 				+ "LEFT OUTER JOIN rooms ON sessions.room_id=rooms.room_id";
@@ -89,6 +127,12 @@ public class CfpDatabase extends SQLiteOpenHelper {
 				+ "LEFT OUTER JOIN rooms ON sessions.room_id=rooms.room_id "
 				+ "LEFT OUTER JOIN tracks ON sessions.track_id=tracks.track_id";
 
+		String SESSIONS_JOIN_BLOCKS_ROOMS_TRACKS_BLOCKS_SUMMARY = "sessions "
+				+ "LEFT OUTER JOIN blocks ON sessions.block_id=blocks.block_id "
+				+ "LEFT OUTER JOIN rooms ON sessions.room_id=rooms.room_id "
+				+ "LEFT OUTER JOIN tracks ON sessions.track_id=tracks.track_id "
+				+ "LEFT OUTER JOIN blocks_summary ON sessions.block_id=blocks_summary.block_id";
+
 		String SESSIONS_SPEAKERS_JOIN_SPEAKERS = "sessions_speakers "
 				+ "LEFT OUTER JOIN speakers ON sessions_speakers.speaker_id=speakers.speaker_id";
 
@@ -120,23 +164,46 @@ public class CfpDatabase extends SQLiteOpenHelper {
 				+ "LEFT OUTER JOIN parleys_presentations_tags ON sessions_tags.tag_id=parleys_presentations_tags.tag_id "
 				+ "LEFT OUTER JOIN parleys_presentations ON parleys_presentations_tags.presentation_id=parleys_presentations.presentation_id";
 
-		String SESSIONS_SEARCH_JOIN_SESSIONS_BLOCKS_ROOMS = "sessions_search "
-				+ "LEFT OUTER JOIN sessions ON sessions_search.session_id=sessions.session_id "
+		// to be prefixed with a search result subquery aliased as search
+		String SEARCH_JOIN_SESSIONS_BLOCKS_ROOMS = "JOIN sessions ON search.search_docid=sessions._id "
 				+ "LEFT OUTER JOIN blocks ON sessions.block_id=blocks.block_id "
 				+ "LEFT OUTER JOIN rooms ON sessions.room_id=rooms.room_id";
 
-		String SPEAKERS_SEARCH_JOIN_SPEAKERS = "speakers_search "
-				+ "LEFT OUTER JOIN speakers ON speakers_search.speaker_id=speakers.speaker_id";
+		String SEARCH_JOIN_SPEAKERS = "JOIN speakers ON search.search_docid=speakers._id";
+
+		String SPEAKERS_SEARCH_JOIN_SESSIONS = "speakers_search "
+				+ "JOIN speakers ON speakers_search.docid=speakers._id "
+				+ "JOIN sessions_speakers ON speakers.speaker_id=sessions_speakers.speaker_id "
+				+ "JOIN sessions ON sessions_speakers.session_id=sessions.session_id";
 	}
 
 	private interface Triggers {
 		String SESSIONS_SEARCH_INSERT = "sessions_search_insert";
 		String SESSIONS_SEARCH_DELETE = "sessions_search_delete";
 		String SESSIONS_SEARCH_UPDATE = "sessions_search_update";
+		String SESSIONS_SEARCH_BEFORE_UPDATE = "sessions_search_before_update";
 
 		String SPEAKERS_SEARCH_INSERT = "speakers_search_insert";
 		String SPEAKERS_SEARCH_DELETE = "speakers_search_delete";
 		String SPEAKERS_SEARCH_UPDATE = "speakers_search_update";
+		String SPEAKERS_SEARCH_BEFORE_UPDATE = "speakers_search_before_update";
+
+		String SESSIONS_CLEANUP_DELETE = "sessions_cleanup_delete";
+		String SPEAKERS_CLEANUP_INSERT = "speakers_cleanup_insert";
+		String SPEAKERS_CLEANUP_DELETE = "speakers_cleanup_delete";
+		String TAGS_CLEANUP_INSERT = "tags_cleanup_insert";
+		String TAGS_CLEANUP_DELETE = "tags_cleanup_delete";
+		String PARLEYS_PRESENTATIONS_CLEANUP_DELETE = "parleys_presentations_cleanup_delete";
+		String SESSIONS_SPEAKERS_CLEANUP_INSERT = "sessions_speakers_cleanup_insert";
+		String SESSIONS_SPEAKERS_CLEANUP_DELETE = "sessions_speakers_cleanup_delete";
+		String SESSIONS_TAGS_CLEANUP_INSERT = "sessions_tags_cleanup_insert";
+		String SESSIONS_TAGS_CLEANUP_DELETE = "sessions_tags_cleanup_delete";
+		String PARLEYS_PRESENTATIONS_TAGS_CLEANUP_INSERT = "parleys_presentations_tags_cleanup_insert";
+		String PARLEYS_PRESENTATIONS_TAGS_CLEANUP_DELETE = "parleys_presentations_tags_cleanup_delete";
+
+		String SESSIONS_SUMMARY_INSERT = "sessions_summary_insert";
+		String SESSIONS_SUMMARY_DELETE = "sessions_summary_delete";
+		String SESSIONS_SUMMARY_UPDATE = "sessions_summary_update";
 	}
 
 	public interface SessionsSpeakers {
@@ -159,29 +226,41 @@ public class CfpDatabase extends SQLiteOpenHelper {
 		String TAG_ID = "tag_id";
 	}
 
-	interface SessionsSearchColumns {
-		String SESSION_ID = "session_id";
-		String BODY = "body";
+	/**
+	 * Columns indexed in the search tables. They carry the names of the
+	 * indexed table, as required for an external content table.
+	 */
+	interface SearchColumns {
+		String[] SESSIONS = { Sessions.SESSION_TITLE,
+				Sessions.SESSION_SUMMARY, Sessions.SESSION_KEYWORDS };
+		String[] SPEAKERS = { Speakers.SPEAKER_FIRSTNAME,
+				Speakers.SPEAKER_LASTNAME, Speakers.SPEAKER_COMPANY,
+				Speakers.SPEAKER_BIO };
 	}
 
-	interface SpeakersSearchColumns {
-		String SPEAKER_ID = "speaker_id";
-		String BODY = "body";
+	interface CleanupCandidatesColumns {
+		String KIND = "kind";
+		String CANDIDATE_ID = "candidate_id";
 	}
 
-	/** Fully-qualified field names. */
-	private interface Qualified {
-		String SESSIONS_SEARCH_SESSION_ID = Tables.SESSIONS_SEARCH + "."
-				+ SessionsSearchColumns.SESSION_ID;
-		String SPEAKERS_SEARCH_SPEAKER_ID = Tables.SPEAKERS_SEARCH + "."
-				+ SpeakersSearchColumns.SPEAKER_ID;
+	interface BlocksSummaryColumns {
+		String BLOCK_ID = "block_id";
+		String SESSIONS_COUNT = "sessions_count";
+		String STARRED_COUNT = "starred_count";
+		String CONTAINS_STARRED = "contains_starred";
+	}
 
-		String SESSIONS_SEARCH = Tables.SESSIONS_SEARCH + "("
-				+ SessionsSearchColumns.SESSION_ID + ","
-				+ SessionsSearchColumns.BODY + ")";
-		String SPEAKERS_SEARCH = Tables.SPEAKERS_SEARCH + "("
-				+ SpeakersSearchColumns.SPEAKER_ID + ","
-				+ SpeakersSearchColumns.BODY + ")";
+	interface TracksSummaryColumns {
+		String TRACK_ID = "track_id";
+		String SESSIONS_COUNT = "sessions_count";
+	}
+
+	/** Kinds of ids recorded in {@link Tables#CLEANUP_CANDIDATES}. */
+	private interface CleanupKinds {
+		String SESSION = "session";
+		String SPEAKER = "speaker";
+		String TAG = "tag";
+		String PRESENTATION = "presentation";
 	}
 
 	/** {@code REFERENCES} clauses. */
@@ -205,67 +284,256 @@ public class CfpDatabase extends SQLiteOpenHelper {
 
 	private interface Subquery {
 		/**
-		 * Subquery used to build the {@link SessionsSearchColumns#BODY} string
-		 * used for indexing {@link Sessions} content.
+		 * Aggregates computing the {@link Tables#BLOCKS_SUMMARY} counts over
+		 * the {@link Sessions} of a block.
 		 */
-		String SESSIONS_BODY = "(new." + Sessions.SESSION_TITLE
-				+ "||'; '||new." + Sessions.SESSION_SUMMARY + "||'; '||"
-				+ "coalesce(new." + Sessions.SESSION_KEYWORDS + ", '')" + ")";
+		String BLOCKS_SUMMARY_COUNTS = "COUNT(" + Sessions.SESSION_ID
+				+ "), coalesce(SUM(" + Sessions.SESSION_STARRED + "), 0), MAX("
+				+ Sessions.SESSION_STARRED + ")";
 
 		/**
-		 * Subquery used to build the {@link SpeakersSearchColumns#BODY} string
-		 * used for indexing {@link Speakers} content.
+		 * Aggregates computing the {@link Tables#TRACKS_SUMMARY} counts over
+		 * the {@link Sessions} of a track.
 		 */
-		String SPEAKERS_BODY = "(new." + Speakers.SPEAKER_FIRSTNAME
-				+ "||'; '||new." + Speakers.SPEAKER_LASTNAME + "||'; '||new."
-				+ Speakers.SPEAKER_COMPANY + "||'; '||new."
-				+ Speakers.SPEAKER_BIO + ")";
+		String TRACKS_SUMMARY_COUNTS = "COUNT(" + Sessions.SESSION_ID + ")";
 	}
 
+	/**
+	 * Tables copied to the prebuilt database. The search tables are filled
+	 * by their triggers.
+	 */
+	private static final String[] PREBUILT_TABLES = { Tables.ROOMS,
+			Tables.TRACKS, Tables.SESSION_TYPES, Tables.BLOCKS,
+			Tables.SPEAKERS, Tables.SESSIONS, Tables.TAGS,
+			Tables.SESSIONS_SPEAKERS, Tables.SESSIONS_TAGS,
+			Tables.PARLEYS_PRESENTATIONS, Tables.PARLEYS_PRESENTATIONS_TAGS,
+			Tables.SEARCH_SUGGEST, };
+
+	/**
+	 * Number of writes made directly on the database, around the
+	 * {@link CfpProvider}.
+	 */
+	private static final AtomicInteger sDirectWrites = new AtomicInteger();
+
 	public CfpDatabase(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
 	}
 
+	/**
+	 * Write the content of the {@link #PREBUILT_TABLES} to a new database at
+	 * the given destination, to be gzipped and shipped as the
+	 * {@link #PREBUILT_ASSET} asset. Only call this right after a first sync
+	 * of the local sources, when no other writes are in progress.
+	 * <p>
+	 * The rows are copied through the open database rather than by copying
+	 * its file, which can miss the latest pages while they are still in the
+	 * write-ahead log. The new database isn't in WAL mode, so older
+	 * platforms can open it.
+	 */
+	public static void exportDatabase(Context context, File destination)
+			throws IOException {
+		final CfpDatabase database = new CfpDatabase(context);
+
+		destination.delete();
+		final SQLiteDatabase export = SQLiteDatabase.openOrCreateDatabase(
+				destination, null);
+		try {
+			database.onCreate(export);
+			export.setVersion(DATABASE_VERSION);
+		} finally {
+			export.close();
+		}
+
+		final SQLiteDatabase db = database.getWritableDatabase();
+		try {
+			db.execSQL("ATTACH DATABASE ? AS " + PREBUILT_SCHEMA,
+					new Object[] { destination.getPath() });
+			try {
+				db.beginTransaction();
+				try {
+					for (String table : PREBUILT_TABLES) {
+						final String columns = getColumns(db, table);
+						db.execSQL("INSERT INTO " + PREBUILT_SCHEMA + "."
+								+ table + " (" + columns + ") SELECT "
+								+ columns + " FROM " + table);
+					}
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+			} finally {
+				db.execSQL("DETACH DATABASE " + PREBUILT_SCHEMA);
+			}
+		} catch (SQLException e) {
+			destination.delete();
+			throw new IOException("Problem exporting database: " + e);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Return the comma separated columns of the given table, so copies
+	 * don't depend on the column order of both schemas.
+	 */
+	private static String getColumns(SQLiteDatabase db, String table) {
+		final StringBuilder columns = new StringBuilder();
+		final Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")",
+				null);
+		try {
+			final int nameIndex = cursor.getColumnIndexOrThrow("name");
+			while (cursor.moveToNext()) {
+				if (columns.length() > 0) {
+					columns.append(',');
+				}
+				columns.append(cursor.getString(nameIndex));
+			}
+		} finally {
+			cursor.close();
+		}
+		return columns.toString();
+	}
+
+	/**
+	 * Remove link table rows pointing to deleted sessions, speakers, tags or
+	 * presentations, and the speakers and tags no longer linked to anything.
+	 * <p>
+	 * Only the ids recorded in {@link Tables#CLEANUP_CANDIDATES} by the
+	 * cleanup triggers since the previous call are checked, so the cost
+	 * follows the size of the changes instead of the size of the database.
+	 */
 	public void cleanupLinkTables() {
 		SQLiteDatabase db = getWritableDatabase();
 		db.beginTransaction();
 		try {
+			// Deleting link rows records their speakers and tags as
+			// candidates as well, so links are handled first.
 			db.execSQL("DELETE FROM " + Tables.SESSIONS_SPEAKERS + " WHERE "
-					+ SessionsSpeakers.SESSION_ID + " NOT IN (SELECT "
-					+ Sessions.SESSION_ID + " FROM " + Tables.SESSIONS + ")");
+					+ SessionsSpeakers.SESSION_ID + " IN "
+					+ candidates(CleanupKinds.SESSION) + " AND NOT EXISTS "
+					+ "(SELECT 1 FROM " + Tables.SESSIONS + " WHERE "
+					+ Tables.SESSIONS + "." + Sessions.SESSION_ID + "="
+					+ Tables.SESSIONS_SPEAKERS + "."
+					+ SessionsSpeakers.SESSION_ID + ")");
 			db.execSQL("DELETE FROM " + Tables.SESSIONS_SPEAKERS + " WHERE "
-					+ SessionsSpeakers.SPEAKER_ID + " NOT IN (SELECT "
-					+ Speakers.SPEAKER_ID + " FROM " + Tables.SPEAKERS + ")");
+					+ SessionsSpeakers.SPEAKER_ID + " IN "
+					+ candidates(CleanupKinds.SPEAKER) + " AND NOT EXISTS "
+					+ "(SELECT 1 FROM " + Tables.SPEAKERS + " WHERE "
+					+ Tables.SPEAKERS + "." + Speakers.SPEAKER_ID + "="
+					+ Tables.SESSIONS_SPEAKERS + "."
+					+ SessionsSpeakers.SPEAKER_ID + ")");
 			db.execSQL("DELETE FROM " + Tables.SPEAKERS + " WHERE "
-					+ Speakers.SPEAKER_ID + " NOT IN (SELECT "
-					+ SessionsSpeakers.SPEAKER_ID + " FROM "
-					+ Tables.SESSIONS_SPEAKERS + ")");
+					+ Speakers.SPEAKER_ID + " IN "
+					+ candidates(CleanupKinds.SPEAKER) + " AND NOT EXISTS "
+					+ "(SELECT 1 FROM " + Tables.SESSIONS_SPEAKERS + " WHERE "
+					+ Tables.SESSIONS_SPEAKERS + "."
+					+ SessionsSpeakers.SPEAKER_ID + "=" + Tables.SPEAKERS + "."
+					+ Speakers.SPEAKER_ID + ")");
 			db.execSQL("DELETE FROM " + Tables.SESSIONS_TAGS + " WHERE "
-					+ SessionsTags.SESSION_ID + " NOT IN (SELECT "
-					+ Sessions.SESSION_ID + " FROM " + Tables.SESSIONS + ")");
+					+ SessionsTags.SESSION_ID + " IN "
+					+ candidates(CleanupKinds.SESSION) + " AND NOT EXISTS "
+					+ "(SELECT 1 FROM " + Tables.SESSIONS + " WHERE "
+					+ Tables.SESSIONS + "." + Sessions.SESSION_ID + "="
+					+ Tables.SESSIONS_TAGS + "." + SessionsTags.SESSION_ID
+					+ ")");
 			db.execSQL("DELETE FROM " + Tables.SESSIONS_TAGS + " WHERE "
-					+ SessionsTags.TAG_ID + " NOT IN (SELECT " + Tags.TAG_ID
-					+ " FROM " + Tables.TAGS + ")");
+					+ SessionsTags.TAG_ID + " IN "
+					+ candidates(CleanupKinds.TAG) + " AND NOT EXISTS "
+					+ "(SELECT 1 FROM " + Tables.TAGS + " WHERE "
+					+ Tables.TAGS + "." + Tags.TAG_ID + "="
+					+ Tables.SESSIONS_TAGS + "." + SessionsTags.TAG_ID + ")");
 			db.execSQL("DELETE FROM " + Tables.PARLEYS_PRESENTATIONS_TAGS
 					+ " WHERE " + ParleysPresentationsTags.PRESENTATION_ID
-					+ " NOT IN (SELECT " + ParleysPresentations.PRESENTATION_ID
-					+ " FROM " + Tables.PARLEYS_PRESENTATIONS + ")");
+					+ " IN " + candidates(CleanupKinds.PRESENTATION)
+					+ " AND NOT EXISTS (SELECT 1 FROM "
+					+ Tables.PARLEYS_PRESENTATIONS + " WHERE "
+					+ Tables.PARLEYS_PRESENTATIONS + "."
+					+ ParleysPresentations.PRESENTATION_ID + "="
+					+ Tables.PARLEYS_PRESENTATIONS_TAGS + "."
+					+ ParleysPresentationsTags.PRESENTATION_ID + ")");
 			db.execSQL("DELETE FROM " + Tables.PARLEYS_PRESENTATIONS_TAGS
-					+ " WHERE " + ParleysPresentationsTags.TAG_ID
-					+ " NOT IN (SELECT " + Tags.TAG_ID + " FROM " + Tables.TAGS
-					+ ")");
+					+ " WHERE " + ParleysPresentationsTags.TAG_ID + " IN "
+					+ candidates(CleanupKinds.TAG) + " AND NOT EXISTS "
+					+ "(SELECT 1 FROM " + Tables.TAGS + " WHERE "
+					+ Tables.TAGS + "." + Tags.TAG_ID + "="
+					+ Tables.PARLEYS_PRESENTATIONS_TAGS + "."
+					+ ParleysPresentationsTags.TAG_ID + ")");
 			db.execSQL("DELETE FROM " + Tables.TAGS + " WHERE " + Tags.TAG_ID
-					+ " NOT IN (SELECT " + SessionsTags.TAG_ID + " FROM "
-					+ Tables.SESSIONS_TAGS + " UNION SELECT "
-					+ ParleysPresentationsTags.TAG_ID + " FROM "
-					+ Tables.PARLEYS_PRESENTATIONS_TAGS + ")");
+					+ " IN " + candidates(CleanupKinds.TAG)
+					+ " AND NOT EXISTS (SELECT 1 FROM " + Tables.SESSIONS_TAGS
+					+ " WHERE " + Tables.SESSIONS_TAGS + "."
+					+ SessionsTags.TAG_ID + "=" + Tables.TAGS + "."
+					+ Tags.TAG_ID + ") AND NOT EXISTS (SELECT 1 FROM "
+					+ Tables.PARLEYS_PRESENTATIONS_TAGS + " WHERE "
+					+ Tables.PARLEYS_PRESENTATIONS_TAGS + "."
+					+ ParleysPresentationsTags.TAG_ID + "=" + Tables.TAGS
+					+ "." + Tags.TAG_ID + ")");
+			db.execSQL("DELETE FROM " + Tables.CLEANUP_CANDIDATES);
 			db.setTransactionSuccessful();
 		} finally {
 			db.endTransaction();
+			sDirectWrites.incrementAndGet();
 			db.close();
 		}
 	}
 
+	/**
+	 * Return the number of writes made by {@link #cleanupLinkTables()},
+	 * which the provider doesn't see.
+	 */
+	static int getDirectWriteCount() {
+		return sDirectWrites.get();
+	}
+
+	/**
+	 * Copy the pages written since the last checkpoint from the write-ahead
+	 * log back into the database file. Call this once a sync is done, so
+	 * the log doesn't keep growing while readers are active.
+	 */
+	public void checkpoint() {
+		if (!UIUtils.isHoneycomb()) {
+			return;
+		}
+
+		SQLiteDatabase db = getWritableDatabase();
+		try {
+			final Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint", null);
+			cursor.moveToFirst();
+			cursor.close();
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Subquery selecting the candidate ids of the given kind.
+	 */
+	private static String candidates(String kind) {
+		return "(SELECT " + CleanupCandidatesColumns.CANDIDATE_ID + " FROM "
+				+ Tables.CLEANUP_CANDIDATES + " WHERE "
+				+ CleanupCandidatesColumns.KIND + "='" + kind + "')";
+	}
+
+	/**
+	 * Run the database in write-ahead logging mode where the platform
+	 * supports it. Readers then get their own connections and keep reading
+	 * the last committed state while a sync writes, instead of waiting for
+	 * its transaction to end.
+	 * <p>
+	 * The provider keeps issuing the same statements, so the cache of
+	 * compiled statements is made as large as allowed.
+	 */
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		if (UIUtils.isHoneycomb()) {
+			db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+			if (!db.isReadOnly()) {
+				db.enableWriteAheadLogging();
+			}
+		}
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL("CREATE TABLE " + Tables.SESSIONS + " (" + BaseColumns._ID
@@ -404,6 +672,8 @@ public class CfpDatabase extends SQLiteOpenHelper {
 
 		createSessionsSearch(db);
 		createSpeakersSearch(db);
+		createCleanupCandidates(db);
+		createSummaries(db);
 
 		createIndices(db);
 	}
@@ -459,6 +729,65 @@ public class CfpDatabase extends SQLiteOpenHelper {
 					+ BlocksColumns.BLOCK_CODE + " FROM tmp_" + Tables.BLOCKS);
 			db.execSQL("DROP TABLE tmp_" + Tables.BLOCKS);
 			version = VER_ADD_SYNC_COLUMNS_TO_BLOCKS;
+		case VER_ADD_SYNC_COLUMNS_TO_BLOCKS:
+			createCleanupCandidates(db);
+			seedCleanupCandidates(db);
+			db.execSQL("CREATE INDEX " + Tables.SESSIONS_TAGS + "_"
+					+ SessionsTags.TAG_ID + "_IDX ON " + Tables.SESSIONS_TAGS
+					+ "(" + SessionsTags.TAG_ID + ")");
+			db.execSQL("CREATE INDEX " + Tables.PARLEYS_PRESENTATIONS_TAGS
+					+ "_" + ParleysPresentationsTags.TAG_ID + "_IDX ON "
+					+ Tables.PARLEYS_PRESENTATIONS_TAGS + "("
+					+ ParleysPresentationsTags.TAG_ID + ")");
+			version = VER_INCREMENTAL_CLEANUP;
+		case VER_INCREMENTAL_CLEANUP:
+			createSummaries(db);
+			db.execSQL("INSERT INTO " + Tables.BLOCKS_SUMMARY + " SELECT "
+					+ Sessions.BLOCK_ID + ", " + Subquery.BLOCKS_SUMMARY_COUNTS
+					+ " FROM " + Tables.SESSIONS + " WHERE "
+					+ Sessions.BLOCK_ID + " IS NOT NULL GROUP BY "
+					+ Sessions.BLOCK_ID);
+			db.execSQL("INSERT INTO " + Tables.TRACKS_SUMMARY + " SELECT "
+					+ Sessions.TRACK_ID + ", " + Subquery.TRACKS_SUMMARY_COUNTS
+					+ " FROM " + Tables.SESSIONS + " WHERE "
+					+ Sessions.TRACK_ID + " IS NOT NULL GROUP BY "
+					+ Sessions.TRACK_ID);
+			version = VER_ADD_SUMMARIES;
+		case VER_ADD_SUMMARIES:
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SESSIONS_SEARCH_INSERT);
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SESSIONS_SEARCH_DELETE);
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SESSIONS_SEARCH_UPDATE);
+			db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_SEARCH);
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SPEAKERS_SEARCH_INSERT);
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SPEAKERS_SEARCH_DELETE);
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SPEAKERS_SEARCH_UPDATE);
+			db.execSQL("DROP TABLE IF EXISTS " + Tables.SPEAKERS_SEARCH);
+			createSessionsSearch(db);
+			createSpeakersSearch(db);
+			fillSearch(db, Tables.SESSIONS_SEARCH, Tables.SESSIONS,
+					SearchColumns.SESSIONS);
+			fillSearch(db, Tables.SPEAKERS_SEARCH, Tables.SPEAKERS,
+					SearchColumns.SPEAKERS);
+			version = VER_COLUMN_SEARCH;
+		case VER_COLUMN_SEARCH:
+			createBlockTimesIndex(db);
+			version = VER_BLOCK_TIMES_INDEX;
+		case VER_BLOCK_TIMES_INDEX:
+			createSearchUpdateTriggers(db, Tables.SESSIONS_SEARCH,
+					Tables.SESSIONS, SearchColumns.SESSIONS,
+					Triggers.SESSIONS_SEARCH_BEFORE_UPDATE,
+					Triggers.SESSIONS_SEARCH_UPDATE);
+			createSearchUpdateTriggers(db, Tables.SPEAKERS_SEARCH,
+					Tables.SPEAKERS, SearchColumns.SPEAKERS,
+					Triggers.SPEAKERS_SEARCH_BEFORE_UPDATE,
+					Triggers.SPEAKERS_SEARCH_UPDATE);
+			version = VER_SEARCH_UPDATE_WHEN;
 		}
 
 		Log.d(TAG, "after upgrade logic, at version " + version);
@@ -484,6 +813,8 @@ public class CfpDatabase extends SQLiteOpenHelper {
 					+ Triggers.SESSIONS_SEARCH_DELETE);
 			db.execSQL("DROP TRIGGER IF EXISTS "
 					+ Triggers.SESSIONS_SEARCH_UPDATE);
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SESSIONS_SEARCH_BEFORE_UPDATE);
 			db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_SEARCH);
 
 			db.execSQL("DROP TRIGGER IF EXISTS "
@@ -492,6 +823,8 @@ public class CfpDatabase extends SQLiteOpenHelper {
 					+ Triggers.SPEAKERS_SEARCH_DELETE);
 			db.execSQL("DROP TRIGGER IF EXISTS "
 					+ Triggers.SPEAKERS_SEARCH_UPDATE);
+			db.execSQL("DROP TRIGGER IF EXISTS "
+					+ Triggers.SPEAKERS_SEARCH_BEFORE_UPDATE);
 			db.execSQL("DROP TABLE IF EXISTS " + Tables.SPEAKERS_SEARCH);
 
 			db.execSQL("DROP TABLE IF EXISTS " + Tables.SEARCH_SUGGEST);
@@ -503,75 +836,323 @@ public class CfpDatabase extends SQLiteOpenHelper {
 			db.execSQL("DROP TABLE IF EXISTS " + Tables.PARLEYS_PRESENTATIONS);
 			db.execSQL("DROP TABLE IF EXISTS "
 					+ Tables.PARLEYS_PRESENTATIONS_TAGS);
+			db.execSQL("DROP TABLE IF EXISTS " + Tables.CLEANUP_CANDIDATES);
+			db.execSQL("DROP TABLE IF EXISTS " + Tables.BLOCKS_SUMMARY);
+			db.execSQL("DROP TABLE IF EXISTS " + Tables.TRACKS_SUMMARY);
 
 			onCreate(db);
 		}
 	}
 
 	private static void createSessionsSearch(SQLiteDatabase db) {
-		// Using the "porter" tokenizer for simple stemming, so that
-		// "frustration" matches "frustrated."
-
-		db.execSQL("CREATE VIRTUAL TABLE " + Tables.SESSIONS_SEARCH
-				+ " USING fts3(" + BaseColumns._ID
-				+ " INTEGER PRIMARY KEY AUTOINCREMENT,"
-				+ SessionsSearchColumns.BODY + " TEXT NOT NULL,"
-				+ SessionsSearchColumns.SESSION_ID + " TEXT NOT NULL "
-				+ References.SESSION_ID + "," + "UNIQUE ("
-				+ SessionsSearchColumns.SESSION_ID + ") ON CONFLICT REPLACE,"
-				+ "tokenize=porter)");
-
-		db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SEARCH_INSERT
-				+ " AFTER INSERT ON " + Tables.SESSIONS + " BEGIN INSERT INTO "
-				+ Qualified.SESSIONS_SEARCH + " " + " VALUES(new."
-				+ Sessions.SESSION_ID + ", " + Subquery.SESSIONS_BODY + ");"
-				+ " END;");
-
-		db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SEARCH_DELETE
-				+ " AFTER DELETE ON " + Tables.SESSIONS + " BEGIN DELETE FROM "
-				+ Tables.SESSIONS_SEARCH + " " + " WHERE "
-				+ Qualified.SESSIONS_SEARCH_SESSION_ID + "=old."
-				+ Sessions.SESSION_ID + ";" + " END;");
-
-		db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SEARCH_UPDATE
-				+ " AFTER UPDATE ON " + Tables.SESSIONS + " BEGIN UPDATE "
-				+ Tables.SESSIONS_SEARCH + " SET " + SessionsSearchColumns.BODY
-				+ " = " + Subquery.SESSIONS_BODY + " WHERE "
-				+ Qualified.SESSIONS_SEARCH_SESSION_ID + " = old."
-				+ Sessions.SESSION_ID + "; END;");
+		createSearch(db, Tables.SESSIONS_SEARCH, Tables.SESSIONS,
+				SearchColumns.SESSIONS, Triggers.SESSIONS_SEARCH_INSERT,
+				Triggers.SESSIONS_SEARCH_DELETE,
+				Triggers.SESSIONS_SEARCH_BEFORE_UPDATE,
+				Triggers.SESSIONS_SEARCH_UPDATE);
 	}
 
 	private static void createSpeakersSearch(SQLiteDatabase db) {
+		createSearch(db, Tables.SPEAKERS_SEARCH, Tables.SPEAKERS,
+				SearchColumns.SPEAKERS, Triggers.SPEAKERS_SEARCH_INSERT,
+				Triggers.SPEAKERS_SEARCH_DELETE,
+				Triggers.SPEAKERS_SEARCH_BEFORE_UPDATE,
+				Triggers.SPEAKERS_SEARCH_UPDATE);
+	}
+
+	/**
+	 * Create a full-text index over the given columns of a table, keyed by
+	 * its {@link BaseColumns#_ID} as docid. When SQLite supports it, the
+	 * index is an FTS4 table reading its content from the indexed table,
+	 * instead of holding a copy of it. The triggers only re-index a row when
+	 * one of its indexed columns changes.
+	 */
+	private static void createSearch(SQLiteDatabase db, String searchTable,
+			String contentTable, String[] columns, String insertTrigger,
+			String deleteTrigger, String beforeUpdateTrigger,
+			String updateTrigger) {
+		final String columnList = join("", columns);
+		final String newValues = "new." + BaseColumns._ID + ","
+				+ join("new.", columns);
+		final String deleteOld = "DELETE FROM " + searchTable
+				+ " WHERE docid=old." + BaseColumns._ID + ";";
+		final String insertNew = "INSERT INTO " + searchTable + "(docid,"
+				+ columnList + ") VALUES(" + newValues + ");";
+
 		// Using the "porter" tokenizer for simple stemming, so that
 		// "frustration" matches "frustrated."
+		if (supportsExternalContent(db)) {
+			db.execSQL("CREATE VIRTUAL TABLE " + searchTable
+					+ " USING fts4(content=\"" + contentTable + "\","
+					+ columnList + ",tokenize=porter)");
+		} else {
+			db.execSQL("CREATE VIRTUAL TABLE " + searchTable + " USING fts3("
+					+ columnList + ",tokenize=porter)");
+		}
 
-		db.execSQL("CREATE VIRTUAL TABLE " + Tables.SPEAKERS_SEARCH
-				+ " USING fts3(" + BaseColumns._ID
-				+ " INTEGER PRIMARY KEY AUTOINCREMENT,"
-				+ SpeakersSearchColumns.BODY + " TEXT NOT NULL,"
-				+ SpeakersSearchColumns.SPEAKER_ID + " TEXT NOT NULL "
-				+ References.SPEAKER_ID + "," + "UNIQUE ("
-				+ SpeakersSearchColumns.SPEAKER_ID + ") ON CONFLICT REPLACE,"
-				+ "tokenize=porter)");
-
-		db.execSQL("CREATE TRIGGER " + Triggers.SPEAKERS_SEARCH_INSERT
-				+ " AFTER INSERT ON " + Tables.SPEAKERS + " BEGIN INSERT INTO "
-				+ Qualified.SPEAKERS_SEARCH + " " + " VALUES(new."
-				+ Speakers.SPEAKER_ID + ", " + Subquery.SPEAKERS_BODY + ");"
-				+ " END;");
-
-		db.execSQL("CREATE TRIGGER " + Triggers.SPEAKERS_SEARCH_DELETE
-				+ " AFTER DELETE ON " + Tables.SPEAKERS + " BEGIN DELETE FROM "
-				+ Tables.SPEAKERS_SEARCH + " " + " WHERE "
-				+ Qualified.SPEAKERS_SEARCH_SPEAKER_ID + "=old."
-				+ Speakers.SPEAKER_ID + ";" + " END;");
-
-		db.execSQL("CREATE TRIGGER " + Triggers.SPEAKERS_SEARCH_UPDATE
-				+ " AFTER UPDATE ON " + Tables.SPEAKERS + " BEGIN UPDATE "
-				+ Tables.SPEAKERS_SEARCH + " SET " + SpeakersSearchColumns.BODY
-				+ " = " + Subquery.SPEAKERS_BODY + " WHERE "
-				+ Qualified.SPEAKERS_SEARCH_SPEAKER_ID + " = old."
-				+ Speakers.SPEAKER_ID + "; END;");
+		db.execSQL("CREATE TRIGGER " + insertTrigger + " AFTER INSERT ON "
+				+ contentTable + " BEGIN " + insertNew + " END;");
+		// An external content index reads the indexed values back from the
+		// table when removing them, so this must happen before they change.
+		db.execSQL("CREATE TRIGGER " + deleteTrigger + " BEFORE DELETE ON "
+				+ contentTable + " BEGIN " + deleteOld + " END;");
+		createSearchUpdateTriggers(db, searchTable, contentTable, columns,
+				beforeUpdateTrigger, updateTrigger);
+	}
+
+	/**
+	 * (Re)create the triggers re-indexing a row of the given table when one
+	 * of its indexed columns changes. Handlers write every column on each
+	 * sync, so the triggers compare the values instead of relying on the
+	 * columns being part of the update.
+	 */
+	private static void createSearchUpdateTriggers(SQLiteDatabase db,
+			String searchTable, String contentTable, String[] columns,
+			String beforeUpdateTrigger, String updateTrigger) {
+		final String columnList = join("", columns);
+		final String changed = buildChanged(columns);
+		final String deleteOld = "DELETE FROM " + searchTable
+				+ " WHERE docid=old." + BaseColumns._ID + ";";
+		final String insertNew = "INSERT INTO " + searchTable + "(docid,"
+				+ columnList + ") VALUES(new." + BaseColumns._ID + ","
+				+ join("new.", columns) + ");";
+
+		db.execSQL("DROP TRIGGER IF EXISTS " + beforeUpdateTrigger);
+		db.execSQL("DROP TRIGGER IF EXISTS " + updateTrigger);
+		db.execSQL("CREATE TRIGGER " + beforeUpdateTrigger
+				+ " BEFORE UPDATE OF " + columnList + " ON " + contentTable
+				+ " WHEN " + changed + " BEGIN " + deleteOld + " END;");
+		db.execSQL("CREATE TRIGGER " + updateTrigger + " AFTER UPDATE OF "
+				+ columnList + " ON " + contentTable + " WHEN " + changed
+				+ " BEGIN " + insertNew + " END;");
+	}
+
+	/**
+	 * Condition that holds when any of the given columns differs between
+	 * the old and new row. Spelled out instead of using {@code IS NOT},
+	 * which older SQLite versions only support against {@code NULL}.
+	 */
+	private static String buildChanged(String[] columns) {
+		final StringBuilder changed = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			final String oldColumn = "old." + columns[i];
+			final String newColumn = "new." + columns[i];
+			if (i > 0) {
+				changed.append(" OR ");
+			}
+			changed.append(oldColumn).append("<>").append(newColumn)
+					.append(" OR (").append(oldColumn).append(" IS NULL)<>(")
+					.append(newColumn).append(" IS NULL)");
+		}
+		return changed.toString();
+	}
+
+	/**
+	 * Index all existing rows of the given table in its search table.
+	 */
+	private static void fillSearch(SQLiteDatabase db, String searchTable,
+			String contentTable, String[] columns) {
+		final String columnList = join("", columns);
+		db.execSQL("INSERT INTO " + searchTable + "(docid," + columnList
+				+ ") SELECT " + BaseColumns._ID + "," + columnList + " FROM "
+				+ contentTable);
+	}
+
+	private static String join(String prefix, String[] columns) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(prefix).append(columns[i]);
+		}
+		return builder.toString();
+	}
+
+	private static boolean supportsExternalContent(SQLiteDatabase db) {
+		final Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+		try {
+			if (!cursor.moveToFirst()) {
+				return false;
+			}
+			final String[] version = cursor.getString(0).split("\\.");
+			for (int i = 0; i < SQLITE_EXTERNAL_CONTENT.length; i++) {
+				final int part = i < version.length ? Integer
+						.parseInt(version[i]) : 0;
+				if (part != SQLITE_EXTERNAL_CONTENT[i]) {
+					return part > SQLITE_EXTERNAL_CONTENT[i];
+				}
+			}
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Create the {@link Tables#CLEANUP_CANDIDATES} table, and the triggers
+	 * recording every id that might have become an orphan, or might have
+	 * left one behind, for {@link #cleanupLinkTables()}.
+	 */
+	private static void createCleanupCandidates(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + Tables.CLEANUP_CANDIDATES + " ("
+				+ CleanupCandidatesColumns.KIND + " TEXT NOT NULL,"
+				+ CleanupCandidatesColumns.CANDIDATE_ID + " TEXT NOT NULL,"
+				+ "UNIQUE (" + CleanupCandidatesColumns.KIND + ","
+				+ CleanupCandidatesColumns.CANDIDATE_ID
+				+ ") ON CONFLICT IGNORE)");
+
+		createCleanupTrigger(db, Triggers.SESSIONS_CLEANUP_DELETE,
+				"AFTER DELETE", Tables.SESSIONS, CleanupKinds.SESSION, "old."
+						+ Sessions.SESSION_ID);
+		createCleanupTrigger(db, Triggers.SPEAKERS_CLEANUP_INSERT,
+				"AFTER INSERT", Tables.SPEAKERS, CleanupKinds.SPEAKER, "new."
+						+ Speakers.SPEAKER_ID);
+		createCleanupTrigger(db, Triggers.SPEAKERS_CLEANUP_DELETE,
+				"AFTER DELETE", Tables.SPEAKERS, CleanupKinds.SPEAKER, "old."
+						+ Speakers.SPEAKER_ID);
+		createCleanupTrigger(db, Triggers.TAGS_CLEANUP_INSERT, "AFTER INSERT",
+				Tables.TAGS, CleanupKinds.TAG, "new." + Tags.TAG_ID);
+		createCleanupTrigger(db, Triggers.TAGS_CLEANUP_DELETE, "AFTER DELETE",
+				Tables.TAGS, CleanupKinds.TAG, "old." + Tags.TAG_ID);
+		createCleanupTrigger(db,
+				Triggers.PARLEYS_PRESENTATIONS_CLEANUP_DELETE, "AFTER DELETE",
+				Tables.PARLEYS_PRESENTATIONS, CleanupKinds.PRESENTATION,
+				"old." + ParleysPresentations.PRESENTATION_ID);
+
+		createCleanupTrigger(db, Triggers.SESSIONS_SPEAKERS_CLEANUP_INSERT,
+				"AFTER INSERT", Tables.SESSIONS_SPEAKERS, CleanupKinds.SESSION,
+				"new." + SessionsSpeakers.SESSION_ID, CleanupKinds.SPEAKER,
+				"new." + SessionsSpeakers.SPEAKER_ID);
+		createCleanupTrigger(db, Triggers.SESSIONS_SPEAKERS_CLEANUP_DELETE,
+				"AFTER DELETE", Tables.SESSIONS_SPEAKERS, CleanupKinds.SPEAKER,
+				"old." + SessionsSpeakers.SPEAKER_ID);
+		createCleanupTrigger(db, Triggers.SESSIONS_TAGS_CLEANUP_INSERT,
+				"AFTER INSERT", Tables.SESSIONS_TAGS, CleanupKinds.SESSION,
+				"new." + SessionsTags.SESSION_ID, CleanupKinds.TAG, "new."
+						+ SessionsTags.TAG_ID);
+		createCleanupTrigger(db, Triggers.SESSIONS_TAGS_CLEANUP_DELETE,
+				"AFTER DELETE", Tables.SESSIONS_TAGS, CleanupKinds.TAG, "old."
+						+ SessionsTags.TAG_ID);
+		createCleanupTrigger(db,
+				Triggers.PARLEYS_PRESENTATIONS_TAGS_CLEANUP_INSERT,
+				"AFTER INSERT", Tables.PARLEYS_PRESENTATIONS_TAGS,
+				CleanupKinds.PRESENTATION, "new."
+						+ ParleysPresentationsTags.PRESENTATION_ID,
+				CleanupKinds.TAG, "new." + ParleysPresentationsTags.TAG_ID);
+		createCleanupTrigger(db,
+				Triggers.PARLEYS_PRESENTATIONS_TAGS_CLEANUP_DELETE,
+				"AFTER DELETE", Tables.PARLEYS_PRESENTATIONS_TAGS,
+				CleanupKinds.TAG, "old." + ParleysPresentationsTags.TAG_ID);
+	}
+
+	/**
+	 * Create a trigger recording cleanup candidates, given as pairs of a
+	 * {@link CleanupKinds kind} and the expression of the id.
+	 */
+	private static void createCleanupTrigger(SQLiteDatabase db, String name,
+			String event, String table, String... candidates) {
+		final StringBuilder sql = new StringBuilder();
+		sql.append("CREATE TRIGGER ").append(name).append(' ').append(event)
+				.append(" ON ").append(table).append(" BEGIN ");
+		for (int i = 0; i < candidates.length; i += 2) {
+			sql.append("INSERT INTO ").append(Tables.CLEANUP_CANDIDATES)
+					.append(" VALUES('").append(candidates[i]).append("', ")
+					.append(candidates[i + 1]).append("); ");
+		}
+		sql.append("END;");
+		db.execSQL(sql.toString());
+	}
+
+	/**
+	 * Record every id of the link tables and of the tables they point to as
+	 * a cleanup candidate, so the next cleanup also covers the changes made
+	 * before the candidates were tracked.
+	 */
+	private static void seedCleanupCandidates(SQLiteDatabase db) {
+		seedCleanupCandidates(db, CleanupKinds.SESSION,
+				SessionsSpeakers.SESSION_ID, Tables.SESSIONS_SPEAKERS);
+		seedCleanupCandidates(db, CleanupKinds.SESSION,
+				SessionsTags.SESSION_ID, Tables.SESSIONS_TAGS);
+		seedCleanupCandidates(db, CleanupKinds.SPEAKER, Speakers.SPEAKER_ID,
+				Tables.SPEAKERS);
+		seedCleanupCandidates(db, CleanupKinds.SPEAKER,
+				SessionsSpeakers.SPEAKER_ID, Tables.SESSIONS_SPEAKERS);
+		seedCleanupCandidates(db, CleanupKinds.TAG, Tags.TAG_ID, Tables.TAGS);
+		seedCleanupCandidates(db, CleanupKinds.TAG, SessionsTags.TAG_ID,
+				Tables.SESSIONS_TAGS);
+		seedCleanupCandidates(db, CleanupKinds.TAG,
+				ParleysPresentationsTags.TAG_ID,
+				Tables.PARLEYS_PRESENTATIONS_TAGS);
+		seedCleanupCandidates(db, CleanupKinds.PRESENTATION,
+				ParleysPresentationsTags.PRESENTATION_ID,
+				Tables.PARLEYS_PRESENTATIONS_TAGS);
+	}
+
+	private static void seedCleanupCandidates(SQLiteDatabase db, String kind,
+			String column, String table) {
+		db.execSQL("INSERT INTO " + Tables.CLEANUP_CANDIDATES + " SELECT '"
+				+ kind + "', " + column + " FROM " + table);
+	}
+
+	/**
+	 * Create the {@link Tables#BLOCKS_SUMMARY} and
+	 * {@link Tables#TRACKS_SUMMARY} tables, with the triggers recounting the
+	 * blocks and tracks of every changed session. Recounting instead of
+	 * incrementing keeps them right when sessions are replaced on conflict,
+	 * which doesn't fire the delete trigger.
+	 */
+	private static void createSummaries(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + Tables.BLOCKS_SUMMARY + " ("
+				+ BlocksSummaryColumns.BLOCK_ID + " TEXT NOT NULL,"
+				+ BlocksSummaryColumns.SESSIONS_COUNT + " INTEGER NOT NULL,"
+				+ BlocksSummaryColumns.STARRED_COUNT + " INTEGER NOT NULL,"
+				+ BlocksSummaryColumns.CONTAINS_STARRED + " INTEGER,"
+				+ "UNIQUE (" + BlocksSummaryColumns.BLOCK_ID
+				+ ") ON CONFLICT REPLACE)");
+
+		db.execSQL("CREATE TABLE " + Tables.TRACKS_SUMMARY + " ("
+				+ TracksSummaryColumns.TRACK_ID + " TEXT NOT NULL,"
+				+ TracksSummaryColumns.SESSIONS_COUNT + " INTEGER NOT NULL,"
+				+ "UNIQUE (" + TracksSummaryColumns.TRACK_ID
+				+ ") ON CONFLICT REPLACE)");
+
+		db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SUMMARY_INSERT
+				+ " AFTER INSERT ON " + Tables.SESSIONS + " BEGIN "
+				+ refreshSummaries("new") + " END;");
+
+		db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SUMMARY_DELETE
+				+ " AFTER DELETE ON " + Tables.SESSIONS + " BEGIN "
+				+ refreshSummaries("old") + " END;");
+
+		db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SUMMARY_UPDATE
+				+ " AFTER UPDATE OF " + Sessions.BLOCK_ID + ", "
+				+ Sessions.TRACK_ID + ", " + Sessions.SESSION_STARRED + " ON "
+				+ Tables.SESSIONS + " BEGIN " + refreshSummaries("old") + " "
+				+ refreshSummaries("new") + " END;");
+	}
+
+	/**
+	 * Statements recounting the summaries of the block and track of the
+	 * {@code old} or {@code new} row within a trigger. Sessions without a
+	 * block or track are skipped.
+	 */
+	private static String refreshSummaries(String row) {
+		final String blockId = row + "." + Sessions.BLOCK_ID;
+		final String trackId = row + "." + Sessions.TRACK_ID;
+		// The aggregates always return a row, so the null check is done
+		// on the outer select.
+		return "INSERT INTO " + Tables.BLOCKS_SUMMARY + " SELECT * FROM "
+				+ "(SELECT " + blockId + " AS id, "
+				+ Subquery.BLOCKS_SUMMARY_COUNTS + " FROM " + Tables.SESSIONS
+				+ " WHERE " + Sessions.BLOCK_ID + "=" + blockId
+				+ ") WHERE id IS NOT NULL; INSERT INTO "
+				+ Tables.TRACKS_SUMMARY + " SELECT * FROM (SELECT " + trackId
+				+ " AS id, " + Subquery.TRACKS_SUMMARY_COUNTS + " FROM "
+				+ Tables.SESSIONS + " WHERE " + Sessions.TRACK_ID + "="
+				+ trackId + ") WHERE id IS NOT NULL;";
 	}
 
 	private static void createIndices(SQLiteDatabase db) {
@@ -600,6 +1181,7 @@ public class CfpDatabase extends SQLiteOpenHelper {
 
 		db.execSQL("CREATE INDEX " + Tables.BLOCKS + "_" + Blocks.BLOCK_ID
 				+ "_IDX ON " + Tables.BLOCKS + "(" + Blocks.BLOCK_ID + ")");
+		createBlockTimesIndex(db);
 
 		db.execSQL("CREATE INDEX " + Tables.TRACKS + "_" + Tracks.TRACK_ID
 				+ "_IDX ON " + Tables.TRACKS + "(" + Tracks.TRACK_ID + ")");
@@ -620,6 +1202,26 @@ public class CfpDatabase extends SQLiteOpenHelper {
 				+ SessionsSpeakers.SPEAKER_ID + "_IDX ON "
 				+ Tables.SESSIONS_SPEAKERS + "(" + SessionsSpeakers.SPEAKER_ID
 				+ ")");
+
+		// Lookups on session_id and presentation_id use the UNIQUE indices
+		db.execSQL("CREATE INDEX " + Tables.SESSIONS_TAGS + "_"
+				+ SessionsTags.TAG_ID + "_IDX ON " + Tables.SESSIONS_TAGS + "("
+				+ SessionsTags.TAG_ID + ")");
+		db.execSQL("CREATE INDEX " + Tables.PARLEYS_PRESENTATIONS_TAGS + "_"
+				+ ParleysPresentationsTags.TAG_ID + "_IDX ON "
+				+ Tables.PARLEYS_PRESENTATIONS_TAGS + "("
+				+ ParleysPresentationsTags.TAG_ID + ")");
+	}
+
+	/**
+	 * Index blocks on their start and end times. It covers the block id as
+	 * well, so time range lookups of blocks never read the table itself.
+	 */
+	private static void createBlockTimesIndex(SQLiteDatabase db) {
+		db.execSQL("CREATE INDEX " + Tables.BLOCKS + "_" + Blocks.BLOCK_START
+				+ "_" + Blocks.BLOCK_END + "_IDX ON " + Tables.BLOCKS + "("
+				+ Blocks.BLOCK_START + ", " + Blocks.BLOCK_END + ", "
+				+ Blocks.BLOCK_ID + ")");
 	}
 
 }
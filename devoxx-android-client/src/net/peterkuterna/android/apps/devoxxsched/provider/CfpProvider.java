@@ -19,7 +19,11 @@ package net.peterkuterna.android.apps.devoxxsched.provider;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Blocks;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.News;
@@ -32,14 +36,17 @@ import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Speakers;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Tags;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Tracks;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Tweets;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.BlocksSummaryColumns;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.ParleysPresentationsTags;
-import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.SessionsSearchColumns;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.SessionsSpeakers;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.SessionsTags;
-import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.SpeakersSearchColumns;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.Tables;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.TracksSummaryColumns;
 import net.peterkuterna.android.apps.devoxxsched.service.CfpSyncService;
+import net.peterkuterna.android.apps.devoxxsched.util.Maps;
 import net.peterkuterna.android.apps.devoxxsched.util.SelectionBuilder;
+import net.peterkuterna.android.apps.devoxxsched.util.Sets;
+import net.peterkuterna.android.apps.devoxxsched.util.UIUtils;
 import android.app.Activity;
 import android.app.SearchManager;
 import android.content.ContentProvider;
@@ -51,7 +58,10 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.util.Log;
@@ -65,8 +75,56 @@ public class CfpProvider extends ContentProvider {
 	private static final String TAG = "CfpProvider";
 	private static final boolean LOGV = Log.isLoggable(TAG, Log.VERBOSE);
 
+	/** Number of session titles added to the search suggestions. */
+	private static final int SUGGEST_SESSIONS_COUNT = 5;
+
 	private CfpDatabase mOpenHelper;
 
+	private final CfpSearch mSearch = new CfpSearch();
+
+	private final CfpResultCache mResults = new CfpResultCache();
+
+	/** Number of generated queries kept in {@link #mQueryCache}. */
+	private static final int QUERY_CACHE_SIZE = 64;
+
+	/**
+	 * Generated SQL of recent queries, by {@link Uri} match, projection,
+	 * selection and sort order. Arguments are always bound, so a statement
+	 * only depends on these and the statements compiled by the database
+	 * can be reused as well.
+	 */
+	private final LinkedHashMap<String, String> mQueryCache = new LinkedHashMap<String, String>(
+			QUERY_CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > QUERY_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * {@link Uri}s changed by the batch being applied on the current thread,
+	 * or null when no batch is being applied.
+	 */
+	private final ThreadLocal<HashSet<Uri>> mBatchChanges = new ThreadLocal<HashSet<Uri>>();
+
+	/**
+	 * Insert statements compiled by the batch being applied on the current
+	 * thread, keyed on their SQL, or null when no batch is being applied.
+	 */
+	private final ThreadLocal<HashMap<String, SQLiteStatement>> mBatchInserts = new ThreadLocal<HashMap<String, SQLiteStatement>>();
+
+	/**
+	 * Set when the batch being applied on the current thread wrote to a
+	 * searched table, or null when no batch is being applied.
+	 */
+	private final ThreadLocal<Boolean> mBatchSearched = new ThreadLocal<Boolean>();
+
+	/**
+	 * Set when the batch being applied on the current thread committed part
+	 * of its changes by yielding, or null when no batch is being applied.
+	 */
+	private final ThreadLocal<Boolean> mBatchCommitted = new ThreadLocal<Boolean>();
+
 	private static final UriMatcher sUriMatcher = buildUriMatcher();
 
 	private static final int BLOCKS = 100;
@@ -295,30 +353,72 @@ public class CfpProvider extends ContentProvider {
 		switch (match) {
 		default: {
 			// Most cases are handled with simple SelectionBuilder
+			final String[] tables = getCachedTables(match);
+			final String resultKey = tables != null ? buildResultKey(uri,
+					projection, selection, selectionArgs, sortOrder) : null;
+			int[] versions = null;
+			if (tables != null) {
+				final Cursor cached = mResults.get(resultKey, tables);
+				if (cached != null) {
+					cached.setNotificationUri(contentResolver, uri);
+					return cached;
+				}
+				versions = mResults.getVersions(tables);
+			}
+
 			final SelectionBuilder builder = buildExpandedSelection(uri, match);
-			final Cursor c = builder.where(selection, selectionArgs).query(db,
-					projection, sortOrder);
+			builder.where(selection, selectionArgs);
+			Cursor c;
+			if (match == SESSIONS_SEARCH || match == SPEAKERS_SEARCH) {
+				// Search tables hold the matching ids, never cache them
+				c = builder.query(db, projection, sortOrder);
+			} else {
+				c = db.rawQuery(
+						getQuery(builder, match, projection, selection,
+								sortOrder), builder.getSelectionArgs());
+			}
+			if (tables != null) {
+				c = mResults.put(resultKey, tables, versions, c);
+			}
 			c.setNotificationUri(contentResolver, uri);
 			return c;
 		}
 		case SEARCH_SUGGEST: {
 			final SelectionBuilder builder = new SelectionBuilder();
+			final String query = selectionArgs[0];
 
 			// Adjust incoming query to become SQL text match
 			selectionArgs[0] = selectionArgs[0] + "%";
 			builder.table(Tables.SEARCH_SUGGEST);
 			builder.where(selection, selectionArgs);
-			builder.map(SearchManager.SUGGEST_COLUMN_QUERY,
-					SearchManager.SUGGEST_COLUMN_TEXT_1);
-
-			projection = new String[] { BaseColumns._ID,
-					SearchManager.SUGGEST_COLUMN_TEXT_1,
-					SearchManager.SUGGEST_COLUMN_QUERY };
 
+			// Both cursors are merged, so they need the same columns
 			final String limit = uri
 					.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
-			final Cursor c = builder.query(db, projection, null, null,
-					SearchSuggest.DEFAULT_SORT, limit);
+			final Cursor words = builder.query(db,
+					buildSuggestProjection(SearchManager.SUGGEST_COLUMN_TEXT_1),
+					null, null, SearchSuggest.DEFAULT_SORT, limit);
+
+			// Follow the words with the titles of the best matching sessions
+			final long[] ids = mSearch.search(db, CfpSearch.SESSIONS, query)
+					.getIds();
+			final int count = Math.min(ids.length, SUGGEST_SESSIONS_COUNT);
+			final Cursor c;
+			if (count > 0) {
+				final long[] bestIds = new long[count];
+				System.arraycopy(ids, 0, bestIds, 0, count);
+				final Cursor sessions = new SelectionBuilder()
+						.table(Tables.SESSIONS)
+						.where(BaseColumns._ID + " IN ("
+								+ CfpSearch.buildIdList(bestIds) + ")")
+						.query(db,
+								buildSuggestProjection(Sessions.SESSION_TITLE),
+								CfpSearch.buildRankExpression(
+										BaseColumns._ID, bestIds));
+				c = new MergeCursor(new Cursor[] { words, sessions });
+			} else {
+				c = words;
+			}
 			c.setNotificationUri(contentResolver, uri);
 			return c;
 		}
@@ -336,78 +436,78 @@ public class CfpProvider extends ContentProvider {
 		switch (match) {
 		case BLOCKS: {
 			db.insertOrThrow(Tables.BLOCKS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.BLOCKS);
 			return Blocks.buildBlockUri(values.getAsString(Blocks.BLOCK_ID));
 		}
 		case TRACKS: {
 			db.insertOrThrow(Tables.TRACKS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.TRACKS);
 			return Tracks.buildTrackUri(values.getAsString(Tracks.TRACK_ID));
 		}
 		case ROOMS: {
 			db.insertOrThrow(Tables.ROOMS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.ROOMS);
 			return Rooms.buildRoomUri(values.getAsString(Rooms.ROOM_ID));
 		}
 		case SESSIONS: {
 			db.insertOrThrow(Tables.SESSIONS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.SESSIONS);
 			return Sessions.buildSessionUri(values
 					.getAsString(Sessions.SESSION_ID));
 		}
 		case SESSIONS_ID_SPEAKERS: {
 			db.insertOrThrow(Tables.SESSIONS_SPEAKERS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.SESSIONS_SPEAKERS);
 			return Speakers.buildSpeakerUri(values
 					.getAsString(SessionsSpeakers.SPEAKER_ID));
 		}
 		case SESSIONS_ID_TAGS: {
 			db.insertOrThrow(Tables.SESSIONS_TAGS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.SESSIONS_TAGS);
 			return Tags.buildTagUri(values.getAsString(SessionsTags.TAG_ID));
 		}
 		case SPEAKERS: {
 			db.insertOrThrow(Tables.SPEAKERS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.SPEAKERS);
 			return Speakers.buildSpeakerUri(values
 					.getAsString(Speakers.SPEAKER_ID));
 		}
 		case TAGS: {
 			db.insertOrThrow(Tables.TAGS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.TAGS);
 			return Tags.buildTagUri(values.getAsString(Tags.TAG_ID));
 		}
 		case SESSION_TYPES: {
 			db.insertOrThrow(Tables.SESSION_TYPES, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.SESSION_TYPES);
 			return SessionTypes.buildSessionTypeUri(values
 					.getAsString(SessionTypes.SESSION_TYPE_ID));
 		}
 		case TWEETS: {
-			db.insertOrThrow(Tables.TWEETS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			insertBatched(db, Tables.TWEETS, values);
+			notifyChange(uri, Tables.TWEETS);
 			return Tweets.buildTweetUri(values.getAsString(Tweets.TWEET_ID));
 		}
 		case NEWS: {
-			db.insertOrThrow(Tables.NEWS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			insertBatched(db, Tables.NEWS, values);
+			notifyChange(uri, Tables.NEWS);
 			return News.buildNewsUri(values.getAsString(News.NEWS_ID));
 		}
 		case PARLEYS: {
 			db.insertOrThrow(Tables.PARLEYS_PRESENTATIONS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.PARLEYS_PRESENTATIONS);
 			return Sessions.buildSessionUri(values
 					.getAsString(ParleysPresentations.PRESENTATION_ID));
 		}
 		case PARLEYS_ID_TAGS: {
 			db.insertOrThrow(Tables.PARLEYS_PRESENTATIONS_TAGS, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri, Tables.PARLEYS_PRESENTATIONS_TAGS);
 			return Tags.buildTagUri(values
 					.getAsString(ParleysPresentationsTags.TAG_ID));
 		}
 		case SEARCH_SUGGEST: {
-			db.insertOrThrow(Tables.SEARCH_SUGGEST, null, values);
-			getContext().getContentResolver().notifyChange(uri, null);
+			insertBatched(db, Tables.SEARCH_SUGGEST, values);
+			notifyChange(uri, Tables.SEARCH_SUGGEST);
 			return SearchSuggest.CONTENT_URI;
 		}
 		default: {
@@ -426,7 +526,7 @@ public class CfpProvider extends ContentProvider {
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 		final SelectionBuilder builder = buildSimpleSelection(uri);
 		int retVal = builder.where(selection, selectionArgs).update(db, values);
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri, builder.getTable(), values);
 		return retVal;
 	}
 
@@ -438,34 +538,263 @@ public class CfpProvider extends ContentProvider {
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 		final SelectionBuilder builder = buildSimpleSelection(uri);
 		int retVal = builder.where(selection, selectionArgs).delete(db);
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri, builder.getTable());
 		return retVal;
 	}
 
+	/**
+	 * Insert the given row. While a batch is being applied on this thread,
+	 * the compiled {@link SQLiteStatement} is kept for the rest of the batch
+	 * and reused by later rows holding the same columns.
+	 */
+	private void insertBatched(SQLiteDatabase db, String table,
+			ContentValues values) {
+		final HashMap<String, SQLiteStatement> inserts = mBatchInserts.get();
+		if (inserts == null) {
+			db.insertOrThrow(table, null, values);
+			return;
+		}
+
+		final String[] columns = getColumns(values);
+		final String sql = buildInsertSql(table, columns);
+		SQLiteStatement insert = inserts.get(sql);
+		if (insert == null) {
+			insert = db.compileStatement(sql);
+			inserts.put(sql, insert);
+		}
+		executeInsert(insert, columns, values);
+	}
+
+	private static void executeInsert(SQLiteStatement insert,
+			String[] columns, ContentValues row) {
+		insert.clearBindings();
+		for (int i = 0; i < columns.length; i++) {
+			DatabaseUtils.bindObjectToProgram(insert, i + 1,
+					row.get(columns[i]));
+		}
+		insert.executeInsert();
+	}
+
+	private static String buildInsertSql(String table, String[] columns) {
+		final StringBuilder sql = new StringBuilder();
+		sql.append("INSERT INTO ").append(table).append(" (");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i > 0 ? "," : "").append(columns[i]);
+		}
+		sql.append(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i > 0 ? ",?" : "?");
+		}
+		return sql.append(')').toString();
+	}
+
+	private static String[] getColumns(ContentValues row) {
+		final String[] columns = new String[row.size()];
+		int i = 0;
+		for (Map.Entry<String, Object> entry : row.valueSet()) {
+			columns[i++] = entry.getKey();
+		}
+		return columns;
+	}
+
 	/**
 	 * Apply the given set of {@link ContentProviderOperation}, executing inside
 	 * a {@link SQLiteDatabase} transaction. All changes will be rolled back if
-	 * any single one fails.
+	 * any single one fails. Operations that allow yielding give waiting readers
+	 * a chance to run, in which case only the changes since the last yield
+	 * point are rolled back.
+	 * <p>
+	 * Change notifications of the operations are collected, collapsed to their
+	 * top-level collection, and sent once after the batch succeeded, or
+	 * failed after a yield already committed some of them. Inserts into the
+	 * tweets, news and search suggestions tables reuse their compiled
+	 * statements for the whole batch.
 	 */
 	@Override
 	public ContentProviderResult[] applyBatch(
 			ArrayList<ContentProviderOperation> operations)
 			throws OperationApplicationException {
+		final boolean outermost = mBatchChanges.get() == null;
+		if (outermost) {
+			mBatchChanges.set(Sets.<Uri> newHashSet());
+			mBatchInserts.set(Maps.<String, SQLiteStatement> newHashMap());
+			mBatchSearched.set(Boolean.FALSE);
+			mBatchCommitted.set(Boolean.FALSE);
+		}
+
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		boolean successful = false;
 		db.beginTransaction();
 		try {
+			final boolean canYield = UIUtils.isFroyo();
 			final int numOperations = operations.size();
 			final ContentProviderResult[] results = new ContentProviderResult[numOperations];
 			for (int i = 0; i < numOperations; i++) {
-				results[i] = operations.get(i).apply(this, results, i);
+				final ContentProviderOperation operation = operations.get(i);
+				if (i > 0 && canYield && operation.isYieldAllowed()
+						&& db.yieldIfContendedSafely()) {
+					mBatchCommitted.set(Boolean.TRUE);
+				}
+				results[i] = operation.apply(this, results, i);
 			}
 			db.setTransactionSuccessful();
+			successful = true;
 			return results;
 		} finally {
 			db.endTransaction();
+			// Searches may have run while the batch yielded
+			if (mBatchSearched.get()) {
+				mSearch.invalidate();
+			}
+			mResults.invalidate();
+			if (outermost) {
+				for (SQLiteStatement insert : mBatchInserts.get().values()) {
+					insert.close();
+				}
+				mBatchInserts.remove();
+				mBatchSearched.remove();
+				final boolean committed = mBatchCommitted.get();
+				mBatchCommitted.remove();
+				final HashSet<Uri> changes = mBatchChanges.get();
+				mBatchChanges.remove();
+				// Changes before a yield stay, even when a later one failed
+				if (successful || committed) {
+					final ContentResolver resolver = getContext()
+							.getContentResolver();
+					for (Uri uri : changes) {
+						resolver.notifyChange(uri, null);
+					}
+				}
+			}
 		}
 	}
 
+	/**
+	 * Bump the version of the written table, then notify observers of the
+	 * change to the given {@link Uri}.
+	 */
+	private void notifyChange(Uri uri, String table) {
+		notifyChange(uri, table, null);
+	}
+
+	/**
+	 * Bump the version of the written table, then notify observers of the
+	 * change to the given {@link Uri}. Cached searches are only dropped when
+	 * the given values, or any column when {@code null}, are searched.
+	 */
+	private void notifyChange(Uri uri, String table, ContentValues values) {
+		if (CfpSearch.isSearched(table, values)) {
+			mSearch.invalidate();
+			if (mBatchSearched.get() != null) {
+				mBatchSearched.set(Boolean.TRUE);
+			}
+		}
+		mResults.invalidate(table);
+		if (Tables.SESSIONS.equals(table)) {
+			// Summaries are maintained by triggers on sessions
+			mResults.invalidate(Tables.BLOCKS_SUMMARY);
+			mResults.invalidate(Tables.TRACKS_SUMMARY);
+		}
+		notifyChange(uri);
+	}
+
+	/**
+	 * Notify observers of a change to the given {@link Uri}, or collect it
+	 * when a batch is being applied on this thread.
+	 */
+	private void notifyChange(Uri uri) {
+		final HashSet<Uri> batchChanges = mBatchChanges.get();
+		if (batchChanges != null) {
+			batchChanges.add(getCollectionUri(uri));
+		} else {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	/**
+	 * Return the top-level collection of the given {@link Uri}. Observers of
+	 * any {@link Uri} below it are notified of changes to it.
+	 */
+	private static Uri getCollectionUri(Uri uri) {
+		final List<String> segments = uri.getPathSegments();
+		if (segments.size() <= 1) {
+			return uri;
+		}
+		return new Uri.Builder().scheme(uri.getScheme())
+				.authority(uri.getAuthority()).appendPath(segments.get(0))
+				.build();
+	}
+
+	/**
+	 * Return the tables read by the given {@link Uri} match when its results
+	 * are small and rarely change, so they can be kept in
+	 * {@link #mResults}, or {@code null} when they shouldn't be cached.
+	 */
+	private static String[] getCachedTables(int match) {
+		switch (match) {
+		case BLOCKS:
+			return new String[] { Tables.BLOCKS };
+		case BLOCKS_BETWEEN:
+			return new String[] { Tables.BLOCKS, Tables.BLOCKS_SUMMARY };
+		case TRACKS:
+			return new String[] { Tables.TRACKS, Tables.TRACKS_SUMMARY };
+		case ROOMS:
+			return new String[] { Tables.ROOMS };
+		case SESSION_TYPES:
+			return new String[] { Tables.SESSION_TYPES };
+		default:
+			return null;
+		}
+	}
+
+	private static String buildResultKey(Uri uri, String[] projection,
+			String selection, String[] selectionArgs, String sortOrder) {
+		final StringBuilder key = new StringBuilder();
+		key.append(uri).append('\0').append(selection).append('\0')
+				.append(sortOrder);
+		if (projection != null) {
+			for (String column : projection) {
+				key.append('\0').append(column);
+			}
+		}
+		if (selectionArgs != null) {
+			for (String arg : selectionArgs) {
+				key.append('\1').append(arg);
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Return the SQL of a query built with
+	 * {@link #buildExpandedSelection(Uri, int)}, from {@link #mQueryCache}
+	 * when the same query was made before.
+	 */
+	private String getQuery(SelectionBuilder builder, int match,
+			String[] projection, String selection, String sortOrder) {
+		final StringBuilder key = new StringBuilder();
+		key.append(match).append('\0').append(selection).append('\0')
+				.append(sortOrder);
+		if (projection != null) {
+			for (String column : projection) {
+				key.append('\0').append(column);
+			}
+		}
+
+		final String cacheKey = key.toString();
+		synchronized (mQueryCache) {
+			final String sql = mQueryCache.get(cacheKey);
+			if (sql != null) {
+				return sql;
+			}
+		}
+		final String sql = builder.buildQuery(projection, sortOrder);
+		synchronized (mQueryCache) {
+			mQueryCache.put(cacheKey, sql);
+		}
+		return sql;
+	}
+
 	/**
 	 * Build a simple {@link SelectionBuilder} to match the requested
 	 * {@link Uri}. This is usually enough to support {@link #insert},
@@ -609,29 +938,31 @@ public class CfpProvider extends ContentProvider {
 			final String startTime = segments.get(2);
 			final String endTime = segments.get(3);
 			return builder
-					.table(Tables.BLOCKS)
-					.map(Blocks.SESSIONS_COUNT, Subquery.BLOCK_SESSIONS_COUNT)
+					.table(Tables.BLOCKS_JOIN_BLOCKS_SUMMARY)
+					.mapToTable(Blocks.BLOCK_ID, Tables.BLOCKS)
+					.map(Blocks.SESSIONS_COUNT, Summary.BLOCK_SESSIONS_COUNT)
 					.map(Blocks.CONTAINS_STARRED,
-							Subquery.BLOCK_CONTAINS_STARRED)
+							Summary.BLOCK_CONTAINS_STARRED)
 					.where(Blocks.BLOCK_START + ">=?", startTime)
 					.where(Blocks.BLOCK_START + "<=?", endTime);
 		}
 		case BLOCKS_ID: {
 			final String blockId = Blocks.getBlockId(uri);
 			return builder
-					.table(Tables.BLOCKS)
-					.map(Blocks.SESSIONS_COUNT, Subquery.BLOCK_SESSIONS_COUNT)
+					.table(Tables.BLOCKS_JOIN_BLOCKS_SUMMARY)
+					.mapToTable(Blocks.BLOCK_ID, Tables.BLOCKS)
+					.map(Blocks.SESSIONS_COUNT, Summary.BLOCK_SESSIONS_COUNT)
 					.map(Blocks.CONTAINS_STARRED,
-							Subquery.BLOCK_CONTAINS_STARRED)
-					.where(Blocks.BLOCK_ID + "=?", blockId);
+							Summary.BLOCK_CONTAINS_STARRED)
+					.where(Qualified.BLOCKS_BLOCK_ID + "=?", blockId);
 		}
 		case BLOCKS_ID_SESSION: {
 			final String blockId = Blocks.getBlockId(uri);
 			return builder
-					.table(Tables.SESSIONS_JOIN_BLOCKS_ROOMS_TRACKS)
-					.map(Blocks.SESSIONS_COUNT, Subquery.BLOCK_SESSIONS_COUNT)
+					.table(Tables.SESSIONS_JOIN_BLOCKS_ROOMS_TRACKS_BLOCKS_SUMMARY)
+					.map(Blocks.SESSIONS_COUNT, Summary.BLOCK_SESSIONS_COUNT)
 					.map(Blocks.CONTAINS_STARRED,
-							Subquery.BLOCK_CONTAINS_STARRED)
+							Summary.BLOCK_CONTAINS_STARRED)
 					.mapToTable(Sessions._ID, Tables.SESSIONS)
 					.mapToTable(Sessions.SESSION_ID, Tables.SESSIONS)
 					.mapToTable(Sessions.BLOCK_ID, Tables.SESSIONS)
@@ -642,10 +973,10 @@ public class CfpProvider extends ContentProvider {
 		case BLOCKS_ID_SESSIONS: {
 			final String blockId = Blocks.getBlockId(uri);
 			return builder
-					.table(Tables.SESSIONS_JOIN_BLOCKS_ROOMS_TRACKS)
-					.map(Blocks.SESSIONS_COUNT, Subquery.BLOCK_SESSIONS_COUNT)
+					.table(Tables.SESSIONS_JOIN_BLOCKS_ROOMS_TRACKS_BLOCKS_SUMMARY)
+					.map(Blocks.SESSIONS_COUNT, Summary.BLOCK_SESSIONS_COUNT)
 					.map(Blocks.CONTAINS_STARRED,
-							Subquery.BLOCK_CONTAINS_STARRED)
+							Summary.BLOCK_CONTAINS_STARRED)
 					.mapToTable(Sessions._ID, Tables.SESSIONS)
 					.mapToTable(Sessions.SESSION_ID, Tables.SESSIONS)
 					.mapToTable(Sessions.BLOCK_ID, Tables.SESSIONS)
@@ -653,8 +984,9 @@ public class CfpProvider extends ContentProvider {
 					.where(Qualified.SESSIONS_BLOCK_ID + "=?", blockId);
 		}
 		case TRACKS: {
-			return builder.table(Tables.TRACKS).map(Tracks.SESSIONS_COUNT,
-					Subquery.TRACK_SESSIONS_COUNT);
+			return builder.table(Tables.TRACKS_JOIN_TRACKS_SUMMARY)
+					.mapToTable(Tracks.TRACK_ID, Tables.TRACKS)
+					.map(Tracks.SESSIONS_COUNT, Summary.TRACK_SESSIONS_COUNT);
 		}
 		case TRACKS_ID: {
 			final String trackId = Tracks.getTrackId(uri);
@@ -702,8 +1034,8 @@ public class CfpProvider extends ContentProvider {
 					.mapToTable(Sessions.BLOCK_ID, Tables.SESSIONS)
 					.mapToTable(Sessions.ROOM_ID, Tables.SESSIONS)
 					.mapToTable(Sessions.TRACK_ID, Tables.SESSIONS)
-					.where(Sessions.BLOCK_START + ">=?", startTime)
-					.where(Sessions.BLOCK_END + "<=?", endTime);
+					.where(WhereClause.SESSIONS_BETWEEN, startTime, endTime,
+							endTime);
 		}
 		case SESSIONS_STARRED: {
 			return builder.table(Tables.SESSIONS_JOIN_BLOCKS_ROOMS)
@@ -722,13 +1054,12 @@ public class CfpProvider extends ContentProvider {
 		case SESSIONS_SEARCH: {
 			final String query = Sessions.getSearchQuery(uri);
 			return builder
-					.table(Tables.SESSIONS_SEARCH_JOIN_SESSIONS_BLOCKS_ROOMS)
-					.map(Sessions.SEARCH_SNIPPET, Subquery.SESSIONS_SNIPPET)
+					.table(buildSearchTable(CfpSearch.SESSIONS, query)
+							+ " " + Tables.SEARCH_JOIN_SESSIONS_BLOCKS_ROOMS)
 					.mapToTable(Sessions._ID, Tables.SESSIONS)
 					.mapToTable(Sessions.SESSION_ID, Tables.SESSIONS)
 					.mapToTable(Sessions.BLOCK_ID, Tables.SESSIONS)
-					.mapToTable(Sessions.ROOM_ID, Tables.SESSIONS)
-					.where(SessionsSearchColumns.BODY + " MATCH ?", query);
+					.mapToTable(Sessions.ROOM_ID, Tables.SESSIONS);
 		}
 		case SESSIONS_PARALLEL: {
 			final List<String> segments = uri.getPathSegments();
@@ -741,7 +1072,7 @@ public class CfpProvider extends ContentProvider {
 					.map(Sessions.STARRED_IN_BLOCK_COUNT,
 							Subquery.BLOCK_STARRED_SESSIONS_COUNT)
 					.mapToTable(Tracks.TRACK_COLOR, Tables.TRACKS)
-					.where(WhereClause.SESSIONS_PARALLEL, sessionId, sessionId)
+					.where(WhereClause.SESSIONS_PARALLEL, sessionId)
 					.where(Sessions.SESSION_ID + "<>?", sessionId);
 		}
 		case SESSIONS_AT: {
@@ -751,8 +1082,7 @@ public class CfpProvider extends ContentProvider {
 					.mapToTable(Sessions._ID, Tables.SESSIONS)
 					.mapToTable(Sessions.BLOCK_ID, Tables.SESSIONS)
 					.mapToTable(Sessions.ROOM_ID, Tables.SESSIONS)
-					.where(Sessions.BLOCK_START + "<=?", time)
-					.where(Sessions.BLOCK_END + ">=?", time);
+					.where(WhereClause.SESSIONS_AT, time, time);
 		}
 		case SESSIONS_ID: {
 			final String sessionId = Sessions.getSessionId(uri);
@@ -806,11 +1136,11 @@ public class CfpProvider extends ContentProvider {
 		}
 		case SPEAKERS_SEARCH: {
 			final String query = Sessions.getSearchQuery(uri);
-			return builder.table(Tables.SPEAKERS_SEARCH_JOIN_SPEAKERS)
-					.map(Speakers.SEARCH_SNIPPET, Subquery.SPEAKERS_SNIPPET)
+			return builder
+					.table(buildSearchTable(CfpSearch.SPEAKERS, query)
+							+ " " + Tables.SEARCH_JOIN_SPEAKERS)
 					.mapToTable(Speakers._ID, Tables.SPEAKERS)
-					.mapToTable(Speakers.SPEAKER_ID, Tables.SPEAKERS)
-					.where(SpeakersSearchColumns.BODY + " MATCH ?", query);
+					.mapToTable(Speakers.SPEAKER_ID, Tables.SPEAKERS);
 		}
 		case SPEAKERS_ID: {
 			final String speakerId = Speakers.getSpeakerId(uri);
@@ -898,22 +1228,67 @@ public class CfpProvider extends ContentProvider {
 		}
 	}
 
+	/**
+	 * Build the columns of a search suggestion, using the given column as
+	 * both the text shown and the query it leads to.
+	 */
+	private static String[] buildSuggestProjection(String column) {
+		return new String[] { BaseColumns._ID,
+				column + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_1,
+				column + " AS " + SearchManager.SUGGEST_COLUMN_QUERY };
+	}
+
+	/**
+	 * Build a subquery, aliased as {@code search}, holding the docid, the
+	 * {@link Sessions#SEARCH_SNIPPET} and the {@link Sessions#SEARCH_RANK} of
+	 * the rows of the given search index matching the query. The snippets are
+	 * cached with the matches, so the search table isn't queried again.
+	 */
+	private String buildSearchTable(CfpSearch.Index index, String query) {
+		final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+		final CfpSearch.Result result = mSearch.search(db, index, query);
+		final long[] ids = result.getIds();
+		if (ids.length == 0) {
+			return "(SELECT NULL AS search_docid, NULL AS "
+					+ Sessions.SEARCH_SNIPPET + ", NULL AS "
+					+ Sessions.SEARCH_RANK + " WHERE 0) AS search";
+		}
+
+		final String[] snippets = result.getSnippets(db);
+		final StringBuilder table = new StringBuilder();
+		table.append("(SELECT ").append(BaseColumns._ID)
+				.append(" AS search_docid, ")
+				.append(CfpSearch.buildSnippetExpression(BaseColumns._ID, ids,
+						snippets)).append(" AS ")
+				.append(Sessions.SEARCH_SNIPPET).append(", ")
+				.append(CfpSearch.buildRankExpression(BaseColumns._ID, ids))
+				.append(" AS ").append(Sessions.SEARCH_RANK).append(" FROM ")
+				.append(index.getContentTable()).append(" WHERE ")
+				.append(BaseColumns._ID).append(" IN (")
+				.append(CfpSearch.buildIdList(ids)).append(')');
+		return table.append(") AS search").toString();
+	}
+
+	/**
+	 * Counts read from the summary tables maintained by {@link CfpDatabase}.
+	 * Blocks and tracks without sessions have no summary yet.
+	 */
+	private interface Summary {
+		String BLOCK_SESSIONS_COUNT = "coalesce("
+				+ Qualified.BLOCKS_SUMMARY_SESSIONS_COUNT + ", 0)";
+
+		String BLOCK_CONTAINS_STARRED = Qualified.BLOCKS_SUMMARY_CONTAINS_STARRED;
+
+		String TRACK_SESSIONS_COUNT = "coalesce("
+				+ Qualified.TRACKS_SUMMARY_SESSIONS_COUNT + ", 0)";
+	}
+
 	private interface Subquery {
-		String BLOCK_SESSIONS_COUNT = "(SELECT COUNT("
-				+ Qualified.SESSIONS_SESSION_ID + ") FROM " + Tables.SESSIONS
-				+ " WHERE " + Qualified.SESSIONS_BLOCK_ID + "="
-				+ Qualified.BLOCKS_BLOCK_ID + ")";
-
-		String BLOCK_CONTAINS_STARRED = "(SELECT MAX("
-				+ Qualified.SESSIONS_STARRED + ") FROM " + Tables.SESSIONS
-				+ " WHERE " + Qualified.SESSIONS_BLOCK_ID + "="
-				+ Qualified.BLOCKS_BLOCK_ID + ")";
-
-		String BLOCK_STARRED_SESSIONS_COUNT = "(SELECT COUNT("
-				+ Qualified.S_SESSION_ID + ") FROM " + Tables.SESSIONS
-				+ " AS S LEFT OUTER JOIN " + Tables.BLOCKS + " AS B ON "
-				+ Qualified.S_BLOCK_ID + "=" + Qualified.B_BLOCK_ID + " WHERE "
-				+ Qualified.S_STARRED + "=1 AND " + "(("
+		String BLOCK_STARRED_SESSIONS_COUNT = "(SELECT coalesce(SUM("
+				+ Qualified.BS_STARRED_COUNT + "), 0) FROM "
+				+ Tables.BLOCKS_SUMMARY + " AS BS JOIN " + Tables.BLOCKS
+				+ " AS B ON " + Qualified.BS_BLOCK_ID + "="
+				+ Qualified.B_BLOCK_ID + " WHERE " + "(("
 				+ Qualified.BLOCKS_BLOCK_START + ">=" + Qualified.B_BLOCK_START
 				+ " AND " + Qualified.BLOCKS_BLOCK_END + "<="
 				+ Qualified.B_BLOCK_END + ") OR (" + Qualified.BLOCKS_BLOCK_END
@@ -923,30 +1298,36 @@ public class CfpProvider extends ContentProvider {
 				+ Qualified.B_BLOCK_END + " AND "
 				+ Qualified.BLOCKS_BLOCK_START + ">=" + Qualified.B_BLOCK_START
 				+ ")))";
-
-		String TRACK_SESSIONS_COUNT = "(SELECT COUNT("
-				+ Qualified.SESSIONS_TRACK_ID + ") FROM " + Tables.SESSIONS
-				+ " WHERE " + Qualified.SESSIONS_TRACK_ID + "="
-				+ Qualified.TRACKS_TRACK_ID + ")";
-
-		String SESSIONS_SNIPPET = "snippet(" + Tables.SESSIONS_SEARCH
-				+ ",'{','}','\u2026')";
-		String SPEAKERS_SNIPPET = "snippet(" + Tables.SPEAKERS_SEARCH
-				+ ",'{','}','\u2026')";
 	}
 
+	/**
+	 * Selections on block times. Matching blocks are looked up through the
+	 * blocks (start, end) index and their sessions through the block index,
+	 * instead of checking the times of every session. A block ends after it
+	 * starts, so a block ending before some time also starts before it,
+	 * which bounds the range of starts to look at.
+	 */
 	private interface WhereClause {
-		String SESSIONS_PARALLEL = "(" + Sessions.BLOCK_START + " >= (SELECT "
-				+ Blocks.BLOCK_START + " FROM " + Tables.BLOCKS
-				+ " LEFT OUTER JOIN " + Tables.SESSIONS + " ON "
-				+ Tables.BLOCKS + "." + Blocks.BLOCK_ID + "=" + Tables.SESSIONS
-				+ "." + Sessions.BLOCK_ID + " WHERE " + Tables.SESSIONS + "."
-				+ Sessions.SESSION_ID + " = ?) AND " + Sessions.BLOCK_END
-				+ " <= (SELECT " + Blocks.BLOCK_END + " FROM " + Tables.BLOCKS
-				+ " LEFT OUTER JOIN " + Tables.SESSIONS + " ON "
-				+ Tables.BLOCKS + "." + Blocks.BLOCK_ID + "=" + Tables.SESSIONS
-				+ "." + Sessions.BLOCK_ID + " WHERE " + Tables.SESSIONS + "."
-				+ Sessions.SESSION_ID + " = ?))";
+		String SESSIONS_BETWEEN = Qualified.SESSIONS_BLOCK_ID + " IN (SELECT "
+				+ Blocks.BLOCK_ID + " FROM " + Tables.BLOCKS + " WHERE "
+				+ Blocks.BLOCK_START + ">=? AND " + Blocks.BLOCK_START
+				+ "<=? AND " + Blocks.BLOCK_END + "<=?)";
+
+		String SESSIONS_AT = Qualified.SESSIONS_BLOCK_ID + " IN (SELECT "
+				+ Blocks.BLOCK_ID + " FROM " + Tables.BLOCKS + " WHERE "
+				+ Blocks.BLOCK_START + "<=? AND " + Blocks.BLOCK_END + ">=?)";
+
+		String SESSIONS_PARALLEL = Qualified.SESSIONS_BLOCK_ID
+				+ " IN (SELECT parallel." + Blocks.BLOCK_ID + " FROM "
+				+ Tables.SESSIONS + " AS session JOIN " + Tables.BLOCKS
+				+ " AS block ON session." + Sessions.BLOCK_ID + "=block."
+				+ Blocks.BLOCK_ID + " JOIN " + Tables.BLOCKS
+				+ " AS parallel ON parallel." + Blocks.BLOCK_START
+				+ ">=block." + Blocks.BLOCK_START + " AND parallel."
+				+ Blocks.BLOCK_START + "<=block." + Blocks.BLOCK_END
+				+ " AND parallel." + Blocks.BLOCK_END + "<=block."
+				+ Blocks.BLOCK_END + " WHERE session." + Sessions.SESSION_ID
+				+ "=?)";
 	}
 
 	/**
@@ -973,12 +1354,6 @@ public class CfpProvider extends ContentProvider {
 		String PARLEYS_PRESENTATIONS_TAGS_TAG_ID = Tables.PARLEYS_PRESENTATIONS_TAGS
 				+ "." + ParleysPresentationsTags.TAG_ID;
 
-		@SuppressWarnings("hiding")
-		String SESSIONS_STARRED = Tables.SESSIONS + "."
-				+ Sessions.SESSION_STARRED;
-
-		String TRACKS_TRACK_ID = Tables.TRACKS + "." + Tracks.TRACK_ID;
-
 		String BLOCKS_BLOCK_ID = Tables.BLOCKS + "." + Blocks.BLOCK_ID;
 		String BLOCKS_BLOCK_START = Tables.BLOCKS + "." + Blocks.BLOCK_START;
 		String BLOCKS_BLOCK_END = Tables.BLOCKS + "." + Blocks.BLOCK_END;
@@ -986,9 +1361,15 @@ public class CfpProvider extends ContentProvider {
 		String PARLEYS_PRESENTATIONS_PRESENTATION_ID = Tables.PARLEYS_PRESENTATIONS
 				+ "." + ParleysPresentations.PRESENTATION_ID;
 
-		String S_SESSION_ID = "S." + Sessions.SESSION_ID;
-		String S_BLOCK_ID = "S." + Sessions.BLOCK_ID;
-		String S_STARRED = "S." + Sessions.SESSION_STARRED;
+		String BLOCKS_SUMMARY_SESSIONS_COUNT = Tables.BLOCKS_SUMMARY + "."
+				+ BlocksSummaryColumns.SESSIONS_COUNT;
+		String BLOCKS_SUMMARY_CONTAINS_STARRED = Tables.BLOCKS_SUMMARY + "."
+				+ BlocksSummaryColumns.CONTAINS_STARRED;
+		String TRACKS_SUMMARY_SESSIONS_COUNT = Tables.TRACKS_SUMMARY + "."
+				+ TracksSummaryColumns.SESSIONS_COUNT;
+
+		String BS_BLOCK_ID = "BS." + BlocksSummaryColumns.BLOCK_ID;
+		String BS_STARRED_COUNT = "BS." + BlocksSummaryColumns.STARRED_COUNT;
 		String B_BLOCK_ID = "B." + Blocks.BLOCK_ID;
 		String B_BLOCK_START = "B." + Blocks.BLOCK_START;
 		String B_BLOCK_END = "B." + Blocks.BLOCK_END;
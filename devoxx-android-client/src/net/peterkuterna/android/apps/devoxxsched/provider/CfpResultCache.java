@@ -0,0 +1,287 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.peterkuterna.android.apps.devoxxsched.provider;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.peterkuterna.android.apps.devoxxsched.util.Maps;
+import net.peterkuterna.android.apps.devoxxsched.util.UIUtils;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * Cache of small query results of {@link CfpProvider}, like the tracks,
+ * rooms or the blocks of a day.
+ * <p>
+ * Each table has a version that is bumped whenever it is written. A cached
+ * result remembers the versions of the tables it was read from, and is only
+ * used as long as none of them changed. Every hit returns a new cursor over
+ * the same snapshot of the rows, so the database isn't queried again until
+ * a sync changes something.
+ */
+class CfpResultCache {
+
+	/** Results with more rows than this are not cached. */
+	static final int MAX_ROWS = 200;
+
+	private static final int CACHE_SIZE = 32;
+
+	private final HashMap<String, Integer> mVersions = Maps.newHashMap();
+
+	private final LinkedHashMap<String, Snapshot> mCache = new LinkedHashMap<String, Snapshot>(
+			CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private int mGeneration;
+
+	/**
+	 * Return the current versions of the given tables. Read these before
+	 * querying, and pass them to {@link #put} along with the result.
+	 */
+	int[] getVersions(String[] tables) {
+		synchronized (mCache) {
+			final int[] versions = new int[tables.length + 2];
+			versions[0] = mGeneration;
+			versions[1] = CfpDatabase.getDirectWriteCount();
+			for (int i = 0; i < tables.length; i++) {
+				final Integer version = mVersions.get(tables[i]);
+				versions[i + 2] = version != null ? version : 0;
+			}
+			return versions;
+		}
+	}
+
+	/**
+	 * Return a new cursor over the cached result with the given key, or
+	 * {@code null} when there is none or one of its tables changed since.
+	 */
+	Cursor get(String key, String[] tables) {
+		synchronized (mCache) {
+			final Snapshot snapshot = mCache.get(key);
+			if (snapshot == null) {
+				return null;
+			}
+			if (!Arrays.equals(snapshot.mVersions, getVersions(tables))) {
+				mCache.remove(key);
+				return null;
+			}
+			return new SnapshotCursor(snapshot);
+		}
+	}
+
+	/**
+	 * Cache the result of a query made with the given table versions. The
+	 * cursor is closed and a cursor over its snapshot returned instead,
+	 * unless it has too many rows to be cached.
+	 */
+	Cursor put(String key, String[] tables, int[] versions, Cursor cursor) {
+		if (cursor.getCount() > MAX_ROWS) {
+			return cursor;
+		}
+
+		final Snapshot snapshot;
+		try {
+			snapshot = new Snapshot(cursor, versions);
+		} finally {
+			cursor.close();
+		}
+
+		synchronized (mCache) {
+			// Don't cache results read while a table was being written
+			if (Arrays.equals(versions, getVersions(tables))) {
+				mCache.put(key, snapshot);
+			}
+		}
+		return new SnapshotCursor(snapshot);
+	}
+
+	/**
+	 * Bump the version of the given table. Call this after every write.
+	 */
+	void invalidate(String table) {
+		synchronized (mCache) {
+			final Integer version = mVersions.get(table);
+			mVersions.put(table, version != null ? version + 1 : 1);
+		}
+	}
+
+	/**
+	 * Forget all cached results. Call this when a transaction ends, since
+	 * results read while it was open no longer match its tables.
+	 */
+	void invalidate() {
+		synchronized (mCache) {
+			mGeneration++;
+			mCache.clear();
+		}
+	}
+
+	/**
+	 * The rows of a query result. Values are kept as {@link Long},
+	 * {@link Double} or {@link String}; before Honeycomb the column types
+	 * can't be asked for, and every value is kept as a string.
+	 */
+	private static final class Snapshot {
+		private final String[] mColumnNames;
+		private final Object[][] mRows;
+		private final int[] mVersions;
+
+		private Snapshot(Cursor cursor, int[] versions) {
+			mColumnNames = cursor.getColumnNames();
+			mRows = new Object[cursor.getCount()][];
+			mVersions = versions;
+
+			final boolean hasTypes = UIUtils.isHoneycomb();
+			final int columnCount = mColumnNames.length;
+			cursor.moveToPosition(-1);
+			for (int i = 0; i < mRows.length && cursor.moveToNext(); i++) {
+				final Object[] row = new Object[columnCount];
+				for (int j = 0; j < columnCount; j++) {
+					row[j] = hasTypes ? getValue(cursor, j) : cursor
+							.getString(j);
+				}
+				mRows[i] = row;
+			}
+		}
+
+		private static Object getValue(Cursor cursor, int column) {
+			switch (cursor.getType(column)) {
+			case Cursor.FIELD_TYPE_NULL:
+				return null;
+			case Cursor.FIELD_TYPE_INTEGER:
+				return cursor.getLong(column);
+			case Cursor.FIELD_TYPE_FLOAT:
+				return cursor.getDouble(column);
+			default:
+				return cursor.getString(column);
+			}
+		}
+	}
+
+	/**
+	 * Read-only cursor over a {@link Snapshot}, shared by all cursors
+	 * returned for the same cached result.
+	 */
+	private static final class SnapshotCursor extends AbstractCursor {
+		private final Snapshot mSnapshot;
+
+		private SnapshotCursor(Snapshot snapshot) {
+			mSnapshot = snapshot;
+		}
+
+		@Override
+		public int getCount() {
+			return mSnapshot.mRows.length;
+		}
+
+		@Override
+		public String[] getColumnNames() {
+			return mSnapshot.mColumnNames;
+		}
+
+		@Override
+		public String getString(int column) {
+			final Object value = get(column);
+			return value != null ? value.toString() : null;
+		}
+
+		@Override
+		public short getShort(int column) {
+			return (short) getLong(column);
+		}
+
+		@Override
+		public int getInt(int column) {
+			return (int) getLong(column);
+		}
+
+		@Override
+		public long getLong(int column) {
+			final Object value = get(column);
+			if (value instanceof Number) {
+				return ((Number) value).longValue();
+			}
+			if (value != null) {
+				try {
+					return Long.parseLong(value.toString());
+				} catch (NumberFormatException e) {
+					return (long) parseDouble(value);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public float getFloat(int column) {
+			return (float) getDouble(column);
+		}
+
+		@Override
+		public double getDouble(int column) {
+			final Object value = get(column);
+			if (value instanceof Number) {
+				return ((Number) value).doubleValue();
+			}
+			return value != null ? parseDouble(value) : 0;
+		}
+
+		@Override
+		public boolean isNull(int column) {
+			return get(column) == null;
+		}
+
+		public int getType(int column) {
+			final Object value = get(column);
+			if (value == null) {
+				return Cursor.FIELD_TYPE_NULL;
+			} else if (value instanceof Long) {
+				return Cursor.FIELD_TYPE_INTEGER;
+			} else if (value instanceof Double) {
+				return Cursor.FIELD_TYPE_FLOAT;
+			}
+			return Cursor.FIELD_TYPE_STRING;
+		}
+
+		private Object get(int column) {
+			if (mPos < 0 || mPos >= mSnapshot.mRows.length) {
+				throw new IllegalStateException("Cursor position " + mPos
+						+ " out of range");
+			}
+			return mSnapshot.mRows[mPos][column];
+		}
+
+		/**
+		 * Convert a value kept as a string like SQLite would, with anything
+		 * that isn't a number giving 0.
+		 */
+		private static double parseDouble(Object value) {
+			try {
+				return Double.parseDouble(value.toString());
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+	}
+
+}
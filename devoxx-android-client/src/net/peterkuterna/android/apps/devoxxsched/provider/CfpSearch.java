@@ -0,0 +1,587 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.peterkuterna.android.apps.devoxxsched.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.SearchColumns;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase.Tables;
+import net.peterkuterna.android.apps.devoxxsched.util.Lists;
+import net.peterkuterna.android.apps.devoxxsched.util.Maps;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Ranked prefix search over the full-text search tables of
+ * {@link CfpDatabase}.
+ * <p>
+ * Every word of a query is matched as a prefix, so results can be shown
+ * while typing. Matches are ranked with a BM25-like score: term frequencies
+ * per column, saturated and normalized by the column length, and weighted
+ * per column. SQLite on Android doesn't allow custom ranking functions, so
+ * the score is computed from {@code offsets()}, which is available on all
+ * platform versions.
+ * <p>
+ * Sessions also match on the names of their speakers, when all words of the
+ * query are found in the index of one of them.
+ * <p>
+ * Recent results are kept in a small LRU cache, together with the snippets
+ * of their matches once those are asked for. A query refining a cached one,
+ * like the next keystroke, only has to rank the cached matches, and none at
+ * all when there were none. Results with many matches are not cached, but
+ * still returned in full.
+ */
+class CfpSearch {
+
+	/** Results with more matches than this are not cached. */
+	private static final int MAX_CACHED_RESULTS = 100;
+
+	private static final int CACHE_SIZE = 16;
+
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+
+	/**
+	 * The names of the speakers of a session, shown for sessions that only
+	 * matched on them.
+	 */
+	private static final String SPEAKER_NAMES = "(SELECT group_concat("
+			+ "speaker_firstname||' '||speaker_lastname,', ') "
+			+ "FROM sessions_speakers JOIN speakers "
+			+ "ON sessions_speakers.speaker_id=speakers.speaker_id "
+			+ "WHERE sessions_speakers.session_id=sessions.session_id)";
+
+	static final Index SESSIONS = new Index(Tables.SESSIONS_SEARCH,
+			Tables.SESSIONS, SearchColumns.SESSIONS, new double[] { 4.0, 1.0,
+					2.0 }, new Link(Tables.SPEAKERS_SEARCH,
+					Tables.SPEAKERS_SEARCH_JOIN_SESSIONS, new double[] { 3.0,
+							3.0, 0.0, 0.0 }, SPEAKER_NAMES));
+	static final Index SPEAKERS = new Index(Tables.SPEAKERS_SEARCH,
+			Tables.SPEAKERS, SearchColumns.SPEAKERS, new double[] { 4.0, 4.0,
+					2.0, 1.0 }, null);
+
+	private final LinkedHashMap<String, Result> mCache = new LinkedHashMap<String, Result>(
+			CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private int mGeneration;
+
+	/** The {@link CfpDatabase#getDirectWriteCount()} of the cached results. */
+	private int mDirectWrites;
+
+	/**
+	 * Return the rows of the given index matching the query, best match
+	 * first.
+	 */
+	Result search(SQLiteDatabase db, Index index, String query) {
+		final String[] terms = getTerms(query);
+		if (terms.length == 0) {
+			return new Result(index, terms, new long[0]);
+		}
+
+		final String key = index.mTable + ':' + join(terms, " ");
+		final Result refined;
+		final int generation;
+		synchronized (mCache) {
+			final int directWrites = CfpDatabase.getDirectWriteCount();
+			if (directWrites != mDirectWrites) {
+				mDirectWrites = directWrites;
+				invalidate();
+			}
+			final Result cached = mCache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+			refined = findRefined(index, terms);
+			generation = mGeneration;
+		}
+
+		final Result result;
+		if (refined != null && refined.mIds.length == 0) {
+			result = new Result(index, terms, refined.mIds);
+		} else {
+			result = rank(db, index, terms, refined != null ? refined.mIds
+					: null);
+		}
+
+		synchronized (mCache) {
+			// Don't cache results read while the content was changing
+			if (generation == mGeneration
+					&& result.mIds.length <= MAX_CACHED_RESULTS) {
+				mCache.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return whether a write to the given table can change the results. Only
+	 * the given values are written by an update, or all columns when they
+	 * are {@code null}.
+	 */
+	static boolean isSearched(String table, ContentValues values) {
+		if (Tables.SESSIONS.equals(table)) {
+			return values == null
+					|| containsAny(values, SearchColumns.SESSIONS);
+		} else if (Tables.SPEAKERS.equals(table)) {
+			return values == null
+					|| containsAny(values, SearchColumns.SPEAKERS);
+		}
+		return Tables.SESSIONS_SPEAKERS.equals(table);
+	}
+
+	/**
+	 * Forget all cached results. Call this whenever an indexed table
+	 * changes.
+	 */
+	void invalidate() {
+		synchronized (mCache) {
+			mGeneration++;
+			mCache.clear();
+		}
+	}
+
+	/**
+	 * Build a {@code CASE} expression turning the given column into the
+	 * snippet of the row with that id.
+	 */
+	static String buildSnippetExpression(String column, long[] ids,
+			String[] snippets) {
+		if (ids.length == 0) {
+			return "NULL";
+		}
+		final StringBuilder builder = new StringBuilder();
+		builder.append("CASE ").append(column);
+		for (int i = 0; i < ids.length; i++) {
+			builder.append(" WHEN ").append(ids[i]).append(" THEN ")
+					.append(DatabaseUtils.sqlEscapeString(snippets[i]));
+		}
+		return builder.append(" END").toString();
+	}
+
+	/**
+	 * Build a {@code CASE} expression turning the given column into the
+	 * position of its value in the given ids.
+	 */
+	static String buildRankExpression(String column, long[] ids) {
+		if (ids.length == 0) {
+			return "NULL";
+		}
+		final StringBuilder builder = new StringBuilder();
+		builder.append("CASE ").append(column);
+		for (int i = 0; i < ids.length; i++) {
+			builder.append(" WHEN ").append(ids[i]).append(" THEN ").append(i);
+		}
+		return builder.append(" END").toString();
+	}
+
+	/**
+	 * Build a comma separated list of the given ids, to be used in an
+	 * {@code IN} clause.
+	 */
+	static String buildIdList(long[] ids) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(ids[i]);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Find the most specific cached result of a query the given terms
+	 * refine. Words are matched as prefixes and combined with AND, so its
+	 * matches are a superset of the matches of the terms.
+	 */
+	private Result findRefined(Index index, String[] terms) {
+		Result best = null;
+		for (Result cached : mCache.values()) {
+			if (cached.mIndex != index || cached.mTerms.length > terms.length) {
+				continue;
+			}
+			boolean refines = true;
+			for (int i = 0; i < cached.mTerms.length && refines; i++) {
+				refines = terms[i].startsWith(cached.mTerms[i]);
+			}
+			if (refines
+					&& (best == null || cached.mIds.length < best.mIds.length)) {
+				best = cached;
+			}
+		}
+		return best;
+	}
+
+	private static Result rank(SQLiteDatabase db, Index index,
+			String[] terms, long[] candidates) {
+		final int columnCount = index.mColumns.length;
+		final StringBuilder sql = new StringBuilder();
+		sql.append("SELECT docid, offsets(").append(index.mTable).append(')');
+		for (String column : index.mColumns) {
+			sql.append(", length(").append(column).append(')');
+		}
+		sql.append(" FROM ").append(index.mTable).append(" WHERE ")
+				.append(index.mTable).append(" MATCH ?");
+		if (candidates != null) {
+			sql.append(" AND docid IN (").append(buildIdList(candidates))
+					.append(')');
+		}
+
+		final String matchQuery = join(terms, "* ") + "*";
+		final ArrayList<Match> matches = Lists.newArrayList();
+		final HashMap<Long, Match> matchesById = Maps.newHashMap();
+		final double[] averageLengths = new double[columnCount];
+		final Cursor cursor = db.rawQuery(sql.toString(),
+				new String[] { matchQuery });
+		try {
+			while (cursor.moveToNext()) {
+				final Match match = new Match(cursor.getLong(0), columnCount);
+				countHits(cursor.getString(1), match.mHits);
+				for (int i = 0; i < columnCount; i++) {
+					match.mLengths[i] = cursor.getInt(i + 2);
+					averageLengths[i] += match.mLengths[i];
+				}
+				matches.add(match);
+				matchesById.put(match.mDocId, match);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		for (int i = 0; i < columnCount; i++) {
+			averageLengths[i] = Math.max(1, averageLengths[i]
+					/ Math.max(1, matches.size()));
+		}
+		for (Match match : matches) {
+			for (int i = 0; i < columnCount; i++) {
+				final int hits = match.mHits[i];
+				if (hits > 0) {
+					final double norm = K1
+							* (1 - B + B * match.mLengths[i] / averageLengths[i]);
+					match.mScore += index.mWeights[i] * hits * (K1 + 1)
+							/ (hits + norm);
+				}
+			}
+		}
+		if (index.mLink != null) {
+			rankLinked(db, index, matchQuery, candidates, matches,
+					matchesById);
+		}
+		Collections.sort(matches, BEST_FIRST);
+
+		final long[] ids = new long[matches.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = matches.get(i).mDocId;
+		}
+		return new Result(index, terms, ids);
+	}
+
+	/**
+	 * Add the score of the rows of the linked index matching the query to
+	 * the rows they belong to, adding those rows to the matches when they
+	 * didn't match themselves. Linked rows are short, like names, so their
+	 * hits are only saturated and not normalized by length.
+	 */
+	private static void rankLinked(SQLiteDatabase db, Index index,
+			String matchQuery, long[] candidates, ArrayList<Match> matches,
+			HashMap<Long, Match> matchesById) {
+		final Link link = index.mLink;
+		final StringBuilder sql = new StringBuilder();
+		sql.append("SELECT ").append(index.mContentTable)
+				.append("._id, offsets(").append(link.mTable)
+				.append(") FROM ").append(link.mJoinTables).append(" WHERE ")
+				.append(link.mTable).append(" MATCH ?");
+		if (candidates != null) {
+			sql.append(" AND ").append(index.mContentTable)
+					.append("._id IN (").append(buildIdList(candidates))
+					.append(')');
+		}
+
+		final int[] hits = new int[link.mWeights.length];
+		final Cursor cursor = db.rawQuery(sql.toString(),
+				new String[] { matchQuery });
+		try {
+			while (cursor.moveToNext()) {
+				Arrays.fill(hits, 0);
+				countHits(cursor.getString(1), hits);
+				double score = 0;
+				for (int i = 0; i < hits.length; i++) {
+					if (hits[i] > 0) {
+						score += link.mWeights[i] * hits[i] * (K1 + 1)
+								/ (hits[i] + K1);
+					}
+				}
+				if (score == 0) {
+					continue;
+				}
+
+				final long docId = cursor.getLong(0);
+				Match match = matchesById.get(docId);
+				if (match == null) {
+					match = new Match(docId, index.mColumns.length);
+					matches.add(match);
+					matchesById.put(docId, match);
+				}
+				match.mScore += score;
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Load the snippets of the given matches of the query. Rows that only
+	 * matched through the linked index are described by its snippet.
+	 */
+	private static String[] loadSnippets(SQLiteDatabase db, Index index,
+			String[] terms, long[] ids) {
+		final String[] snippets = new String[ids.length];
+		if (ids.length == 0) {
+			return snippets;
+		}
+		final HashMap<Long, Integer> positions = Maps.newHashMap();
+		for (int i = 0; i < ids.length; i++) {
+			positions.put(ids[i], i);
+		}
+
+		readSnippets(db, "SELECT docid, snippet(" + index.mTable
+				+ ",'{','}','\u2026') FROM " + index.mTable + " WHERE "
+				+ index.mTable + " MATCH ? AND docid IN (" + buildIdList(ids)
+				+ ")", new String[] { join(terms, "* ") + "*" }, positions,
+				snippets);
+
+		if (index.mLink != null) {
+			final ArrayList<Long> linked = Lists.newArrayList();
+			for (int i = 0; i < ids.length; i++) {
+				if (snippets[i] == null) {
+					linked.add(ids[i]);
+				}
+			}
+			if (!linked.isEmpty()) {
+				final long[] linkedIds = new long[linked.size()];
+				for (int i = 0; i < linkedIds.length; i++) {
+					linkedIds[i] = linked.get(i);
+				}
+				readSnippets(db, "SELECT _id, " + index.mLink.mSnippet
+						+ " FROM " + index.mContentTable + " WHERE _id IN ("
+						+ buildIdList(linkedIds) + ")", null, positions,
+						snippets);
+			}
+		}
+
+		for (int i = 0; i < snippets.length; i++) {
+			if (snippets[i] == null) {
+				snippets[i] = "";
+			}
+		}
+		return snippets;
+	}
+
+	private static void readSnippets(SQLiteDatabase db, String sql,
+			String[] selectionArgs, HashMap<Long, Integer> positions,
+			String[] snippets) {
+		final Cursor cursor = db.rawQuery(sql, selectionArgs);
+		try {
+			while (cursor.moveToNext()) {
+				final Integer position = positions.get(cursor.getLong(0));
+				if (position != null) {
+					snippets[position] = cursor.getString(1);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Count the hits per column in the result of {@code offsets()}, a list
+	 * of column, term, byte offset and size quadruples.
+	 */
+	private static void countHits(String offsets, int[] hits) {
+		if (offsets == null) {
+			return;
+		}
+		final String[] values = offsets.split(" ");
+		for (int i = 0; i + 3 < values.length; i += 4) {
+			try {
+				final int column = Integer.parseInt(values[i]);
+				if (column >= 0 && column < hits.length) {
+					hits[column]++;
+				}
+			} catch (NumberFormatException e) {
+				// Skip malformed entries
+			}
+		}
+	}
+
+	/**
+	 * Split the query into lower case words, dropping anything the
+	 * full-text query syntax could interpret.
+	 */
+	private static String[] getTerms(String query) {
+		final ArrayList<String> terms = Lists.newArrayList();
+		if (query != null) {
+			final StringBuilder term = new StringBuilder();
+			final int length = query.length();
+			for (int i = 0; i <= length; i++) {
+				final char c = i < length ? query.charAt(i) : ' ';
+				if (Character.isLetterOrDigit(c)) {
+					term.append(c);
+				} else if (term.length() > 0) {
+					terms.add(term.toString().toLowerCase(Locale.US));
+					term.setLength(0);
+				}
+			}
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	private static boolean containsAny(ContentValues values, String[] columns) {
+		for (String column : columns) {
+			if (values.containsKey(column)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String join(String[] values, String separator) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				builder.append(separator);
+			}
+			builder.append(values[i]);
+		}
+		return builder.toString();
+	}
+
+	private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+		public int compare(Match lhs, Match rhs) {
+			if (lhs.mScore != rhs.mScore) {
+				return lhs.mScore > rhs.mScore ? -1 : 1;
+			}
+			return lhs.mDocId < rhs.mDocId ? -1
+					: (lhs.mDocId == rhs.mDocId ? 0 : 1);
+		}
+	};
+
+	/**
+	 * A search table, with the table it indexes and the weight of each of
+	 * its columns.
+	 */
+	static final class Index {
+		private final String mTable;
+		private final String mContentTable;
+		private final String[] mColumns;
+		private final double[] mWeights;
+		private final Link mLink;
+
+		private Index(String table, String contentTable, String[] columns,
+				double[] weights, Link link) {
+			mTable = table;
+			mContentTable = contentTable;
+			mColumns = columns;
+			mWeights = weights;
+			mLink = link;
+		}
+
+		String getContentTable() {
+			return mContentTable;
+		}
+	}
+
+	/**
+	 * Another search table whose matches count for the rows of an index,
+	 * like the speakers of a session. Its tables join its rows to the rows
+	 * of the indexed table.
+	 */
+	private static final class Link {
+		private final String mTable;
+		private final String mJoinTables;
+		private final double[] mWeights;
+		private final String mSnippet;
+
+		private Link(String table, String joinTables, double[] weights,
+				String snippet) {
+			mTable = table;
+			mJoinTables = joinTables;
+			mWeights = weights;
+			mSnippet = snippet;
+		}
+	}
+
+	private static final class Match {
+		private final long mDocId;
+		private final int[] mHits;
+		private final int[] mLengths;
+		private double mScore;
+
+		private Match(long docId, int columnCount) {
+			mDocId = docId;
+			mHits = new int[columnCount];
+			mLengths = new int[columnCount];
+		}
+	}
+
+	/**
+	 * The matches of a query, best match first.
+	 */
+	static final class Result {
+		private final Index mIndex;
+		private final String[] mTerms;
+		private final long[] mIds;
+		private String[] mSnippets;
+
+		private Result(Index index, String[] terms, long[] ids) {
+			mIndex = index;
+			mTerms = terms;
+			mIds = ids;
+		}
+
+		long[] getIds() {
+			return mIds;
+		}
+
+		/**
+		 * Return the snippets of the matches, in the order of
+		 * {@link #getIds()}. They are loaded the first time, and kept for as
+		 * long as the result is cached.
+		 */
+		synchronized String[] getSnippets(SQLiteDatabase db) {
+			if (mSnippets == null) {
+				mSnippets = loadSnippets(db, mIndex, mTerms, mIds);
+			}
+			return mSnippets;
+		}
+	}
+
+}
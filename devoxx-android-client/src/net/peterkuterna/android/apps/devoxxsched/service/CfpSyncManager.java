@@ -21,9 +21,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.peterkuterna.android.apps.devoxxsched.receiver.OnAlarmReceiver;
 import net.peterkuterna.android.apps.devoxxsched.ui.SettingsActivity;
+import net.peterkuterna.android.apps.devoxxsched.util.Maps;
 import net.peterkuterna.android.apps.devoxxsched.util.NetworkUtils;
 import net.peterkuterna.android.apps.devoxxsched.util.ParserUtils;
 import net.peterkuterna.android.apps.devoxxsched.util.Prefs;
@@ -43,6 +52,7 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
 import android.util.Log;
 
 /**
@@ -55,6 +65,9 @@ public class CfpSyncManager {
 
 	private static final long INTERVAL = AlarmManager.INTERVAL_HOUR;
 	private static final String BASE_MD5_URL = "INSERT_YOUR_REMOTE_MD5_CHECK_URL_HERE";
+	private static final String MD5_URL_SEPARATOR = "&requestUri=";
+	private static final String BASE_DELTA_URL = "INSERT_YOUR_REMOTE_DELTA_URL_HERE";
+	private static final long MD5_PROBE_TIMEOUT = 15 * DateUtils.SECOND_IN_MILLIS;
 
 	private final WeakReference<Context> mContext;
 
@@ -123,40 +136,65 @@ public class CfpSyncManager {
 	}
 
 	/**
-	 * Checks if the remote content was changed by comparing MD5 keys.
+	 * Checks which of the given remote feeds were changed by comparing MD5
+	 * keys. The remote keys are requested in a single batch, bounded by a
+	 * deadline, so a slow MD5 service only delays the sync decision once.
+	 * The backend answers at most 10 urls at once. Feeds that depend on a
+	 * changed one still have to be applied by the caller.
 	 * 
 	 * @param client
-	 * @return
+	 * @param urls
+	 * @return the changed urls, mapped to their new remote MD5 key. Pass it
+	 *         to {@link #storeLocalMd5s(HashMap)} once those feeds have been
+	 *         synced.
 	 */
-	public Editor hasRemoteContentChanged(HttpClient client) {
+	public HashMap<String, String> getChangedRemoteContent(HttpClient client,
+			String... urls) {
+		final Md5Probe probe = new Md5Probe(client, urls);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		String[] remoteMd5s = null;
+		try {
+			remoteMd5s = executor.submit(probe).get(MD5_PROBE_TIMEOUT,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Treated as unknown keys
+		} catch (TimeoutException e) {
+			// Treated as unknown keys
+		} finally {
+			executor.shutdownNow();
+		}
+		if (remoteMd5s == null) {
+			// Don't leave the connection blocked when we timed out
+			probe.abort();
+			remoteMd5s = new String[urls.length];
+		}
+
+		final HashMap<String, String> changed = Maps.newHashMap();
+		for (int i = 0; i < urls.length; i++) {
+			if (!isMd5Equal(getLocalMd5(urls[i]), remoteMd5s[i])) {
+				changed.put(urls[i], remoteMd5s[i]);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Store the remote MD5 keys returned by
+	 * {@link #getChangedRemoteContent(HttpClient, String...)} as the local
+	 * ones.
+	 * 
+	 * @param md5s
+	 */
+	public void storeLocalMd5s(HashMap<String, String> md5s) {
 		final Context context = getContext();
-		final SharedPreferences prefs = Prefs.get(context);
-		final String localSpeakersMd5 = getLocalMd5(CfpSyncService.SPEAKERS_URL);
-		final String remoteSpeakersMd5 = getRemoteMd5(client,
-				CfpSyncService.SPEAKERS_URL);
-		final String localSessionsMd5 = getLocalMd5(CfpSyncService.PRESENTATIONS_URL);
-		final String remoteSessionsMd5 = getRemoteMd5(client,
-				CfpSyncService.PRESENTATIONS_URL);
-		final String localScheduleMd5 = getLocalMd5(CfpSyncService.SCHEDULE_URL);
-		final String remoteScheduleMd5 = getRemoteMd5(client,
-				CfpSyncService.SCHEDULE_URL);
-		if (isMd5Equal(localSpeakersMd5, remoteSpeakersMd5)
-				&& isMd5Equal(localSessionsMd5, remoteSessionsMd5)
-				&& isMd5Equal(localScheduleMd5, remoteScheduleMd5)) {
-			return null;
-		} else {
-			Editor editor = prefs.edit();
-			editor.putString(
-					ParserUtils.sanitizeId(CfpSyncService.SPEAKERS_URL),
-					remoteSpeakersMd5);
-			editor.putString(
-					ParserUtils.sanitizeId(CfpSyncService.PRESENTATIONS_URL),
-					remoteSessionsMd5);
-			editor.putString(
-					ParserUtils.sanitizeId(CfpSyncService.SCHEDULE_URL),
-					remoteScheduleMd5);
-			return editor;
+		final Editor editor = Prefs.get(context).edit();
+		for (Map.Entry<String, String> entry : md5s.entrySet()) {
+			editor.putString(ParserUtils.sanitizeId(entry.getKey()),
+					entry.getValue());
 		}
+		editor.commit();
 	}
 
 	private static boolean isMd5Equal(String md5Local, String md5Remote) {
@@ -200,16 +238,36 @@ public class CfpSyncManager {
 	}
 
 	/**
-	 * Retrieve the remotely stored MD5 key in AppEngine.
+	 * Build the url of the delta in AppEngine that brings the locally stored
+	 * version of the given url to the version with the given MD5 key.
 	 * 
-	 * @param httpClient
 	 * @param url
-	 * @return
+	 * @param remoteMd5
+	 * @return the url, or null when there is no local version to start from
+	 */
+	public String getDeltaUrl(String url, String remoteMd5) {
+		final String localMd5 = getLocalMd5(url);
+		if (localMd5 == null || remoteMd5 == null) {
+			return null;
+		}
+		return BASE_DELTA_URL + url + "&since=" + localMd5 + "&to="
+				+ remoteMd5;
+	}
+
+	/**
+	 * Retrieve the remotely stored MD5 keys in AppEngine. The response holds
+	 * one line per requested url, in the same order.
+	 * 
+	 * @param httpClient
+	 * @param request
+	 * @param count
+	 *            the number of requested urls
+	 * @return the keys, null for the urls AppEngine has none for, or null
+	 *         when the request failed
 	 */
-	private String getRemoteMd5(HttpClient httpClient, String url) {
+	private static String[] getRemoteMd5s(HttpClient httpClient,
+			HttpUriRequest request, int count) {
 		try {
-			final String requestMd5KeyUrl = BASE_MD5_URL + url;
-			final HttpUriRequest request = new HttpGet(requestMd5KeyUrl);
 			final HttpResponse resp = httpClient.execute(request);
 			final int status = resp.getStatusLine().getStatusCode();
 			if (status != HttpStatus.SC_OK) {
@@ -219,17 +277,18 @@ public class CfpSyncManager {
 			final InputStream input = resp.getEntity().getContent();
 
 			try {
-				BufferedReader reader = new BufferedReader(
+				final BufferedReader reader = new BufferedReader(
 						new InputStreamReader(input));
-				StringBuilder sb = new StringBuilder();
+				final String[] md5s = new String[count];
 				String line;
-				while ((line = reader.readLine()) != null) {
-					sb.append(line);
-				}
-				String md5 = sb.toString().trim();
-				if (md5.length() > 0 && !"NOK".equals(md5)) {
-					return md5;
+				for (int i = 0; i < count
+						&& (line = reader.readLine()) != null; i++) {
+					final String md5 = line.trim();
+					if (md5.length() > 0 && !"NOK".equals(md5)) {
+						md5s[i] = md5;
+					}
 				}
+				return md5s;
 			} finally {
 				if (input != null)
 					input.close();
@@ -239,12 +298,47 @@ public class CfpSyncManager {
 		} catch (IOException e) {
 			return null;
 		}
-
-		return null;
 	}
 
 	protected Context getContext() {
 		return this.mContext.get();
 	}
 
+	/**
+	 * {@link Callable} retrieving the remote MD5 keys of a batch of urls with
+	 * a single request.
+	 */
+	private static class Md5Probe implements Callable<String[]> {
+
+		private final HttpClient mHttpClient;
+		private final HttpUriRequest mRequest;
+		private final int mCount;
+
+		public Md5Probe(HttpClient httpClient, String... urls) {
+			mHttpClient = httpClient;
+			final StringBuilder url = new StringBuilder(BASE_MD5_URL);
+			for (int i = 0; i < urls.length; i++) {
+				if (i > 0) {
+					url.append(MD5_URL_SEPARATOR);
+				}
+				url.append(urls[i]);
+			}
+			mRequest = new HttpGet(url.toString());
+			mCount = urls.length;
+		}
+
+		public String[] call() {
+			return getRemoteMd5s(mHttpClient, mRequest, mCount);
+		}
+
+		public void abort() {
+			try {
+				mRequest.abort();
+			} catch (UnsupportedOperationException e) {
+				// Nothing to abort
+			}
+		}
+
+	}
+
 }
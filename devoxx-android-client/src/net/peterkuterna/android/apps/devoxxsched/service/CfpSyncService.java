@@ -17,24 +17,39 @@
 
 package net.peterkuterna.android.apps.devoxxsched.service;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import net.peterkuterna.android.apps.devoxxsched.R;
+import net.peterkuterna.android.apps.devoxxsched.io.BaseHandler.HandlerException;
+import net.peterkuterna.android.apps.devoxxsched.io.HttpValidators;
+import net.peterkuterna.android.apps.devoxxsched.io.JsonHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.LocalExecutor;
 import net.peterkuterna.android.apps.devoxxsched.io.ParleysPresentationsHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.RemoteExecutor;
+import net.peterkuterna.android.apps.devoxxsched.io.RemoteExecutor.Download;
 import net.peterkuterna.android.apps.devoxxsched.io.RoomsHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.ScheduleHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.SearchSuggestHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.SessionTypesHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.SessionsHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.SpeakersHandler;
+import net.peterkuterna.android.apps.devoxxsched.io.SyncSnapshot;
 import net.peterkuterna.android.apps.devoxxsched.io.TracksHandler;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Sessions;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpProvider;
 import net.peterkuterna.android.apps.devoxxsched.util.HttpUtils;
+import net.peterkuterna.android.apps.devoxxsched.util.Lists;
 import net.peterkuterna.android.apps.devoxxsched.util.NotifierManager;
 import net.peterkuterna.android.apps.devoxxsched.util.Prefs;
 import net.peterkuterna.android.apps.devoxxsched.util.Prefs.DevoxxPrefs;
+import net.peterkuterna.android.apps.devoxxsched.util.Sets;
 
 import org.apache.http.client.HttpClient;
 
@@ -44,7 +59,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
+import android.content.pm.ApplicationInfo;
 import android.content.res.Resources;
 import android.util.Log;
 
@@ -62,11 +77,34 @@ public class CfpSyncService extends AbstractSyncService {
 	public static final String PRESENTATIONS_URL = BASE_URL + "presentations/";
 	public static final String SPEAKERS_URL = BASE_URL + "speakers/";
 
+	/**
+	 * Action that parses the local sources into a fresh database and copies
+	 * it to the cache directory, to be shipped as the
+	 * {@link CfpDatabase#PREBUILT_ASSET} asset. Only honoured by debuggable
+	 * builds, see {@code tools/generate-prebuilt-database.sh}.
+	 */
+	public static final String ACTION_GENERATE_DATABASE = "net.peterkuterna.android.apps.devoxxsched.action.GENERATE_DATABASE";
+
 	public static final int NOTIFICATION_NEW_SESSIONS = 1;
 
 	private static final int VERSION_NONE = 0;
 	private static final int VERSION_CURRENT = 2;
 
+	private static final String PREBUILT_EXPORT = "prebuilt-schedule.db";
+
+	/**
+	 * Remote feeds, in the order they have to be applied.
+	 */
+	private static final String[] REMOTE_URLS = { SPEAKERS_URL,
+			PRESENTATIONS_URL, SCHEDULE_URL };
+
+	/**
+	 * Remote feeds that can be synced with a delta. The schedule can't, since
+	 * removing a schedule entry requires knowing the session it linked.
+	 */
+	private static final Set<String> DELTA_URLS = Sets.newHashSet(
+			SPEAKERS_URL, PRESENTATIONS_URL);
+
 	private LocalExecutor mLocalExecutor;
 	private RemoteExecutor mRemoteExecutor;
 	private HttpClient mHttpClient;
@@ -84,23 +122,27 @@ public class CfpSyncService extends AbstractSyncService {
 		mResolver = getContentResolver();
 
 		mLocalExecutor = new LocalExecutor(getResources(), mResolver);
-		mRemoteExecutor = new RemoteExecutor(mHttpClient, mResolver);
+		mRemoteExecutor = new RemoteExecutor(mHttpClient, mResolver,
+				new HttpValidators(this));
 	}
 
 	@Override
 	protected void doSync(Intent intent) throws Exception {
 		Log.d(TAG, "Start sync");
-		
-		Thread.sleep(5000);
 
 		final Context context = this;
+		final boolean generateDatabase = ACTION_GENERATE_DATABASE
+				.equals(intent.getAction())
+				&& (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
 
 		final SharedPreferences settings = Prefs.get(context);
+		final SyncSnapshot snapshot = new SyncSnapshot(mResolver);
 		final int localVersion = settings.getInt(DevoxxPrefs.CFP_LOCAL_VERSION,
 				VERSION_NONE);
 
 		final long startLocal = System.currentTimeMillis();
-		final boolean localParse = localVersion < VERSION_CURRENT;
+		final boolean localParse = generateDatabase
+				|| localVersion < VERSION_CURRENT;
 		Log.d(TAG, "found localVersion=" + localVersion
 				+ " and VERSION_CURRENT=" + VERSION_CURRENT);
 		if (localParse) {
@@ -112,16 +154,16 @@ public class CfpSyncService extends AbstractSyncService {
 			mLocalExecutor.execute(R.xml.presentationtypes,
 					new SessionTypesHandler());
 			mLocalExecutor.execute(context, "cache-speakers.json",
-					new SpeakersHandler());
+					new SpeakersHandler(snapshot));
 			mLocalExecutor.execute(context, "cache-presentations.json",
-					new SessionsHandler());
+					new SessionsHandler(snapshot));
 			mLocalExecutor.execute(context, "cache-schedule.json",
-					new ScheduleHandler());
+					new ScheduleHandler(snapshot));
 
 			mLocalExecutor.execute(context, "cache-parleys-presentations.json",
 					new ParleysPresentationsHandler());
 
-			// Save local parsed version
+			// Save local parsed version, so the local data isn't loaded again
 			settings.edit()
 					.putInt(DevoxxPrefs.CFP_LOCAL_VERSION, VERSION_CURRENT)
 					.commit();
@@ -134,21 +176,29 @@ public class CfpSyncService extends AbstractSyncService {
 		Log.d(TAG, "Local sync took "
 				+ (System.currentTimeMillis() - startLocal) + "ms");
 
+		if (generateDatabase) {
+			final CfpDatabase database = new CfpDatabase(this);
+			database.cleanupLinkTables();
+			database.checkpoint();
+			final File tmp = new File(getCacheDir(), PREBUILT_EXPORT + ".tmp");
+			CfpDatabase.exportDatabase(context, tmp);
+			tmp.renameTo(new File(getCacheDir(), PREBUILT_EXPORT));
+			Log.d(TAG, "Generated prebuilt database");
+			return;
+		}
+
 		final CfpSyncManager syncManager = new CfpSyncManager(context);
 		if (syncManager.shouldPerformRemoteSync(Intent.ACTION_SYNC
 				.equals(intent.getAction()))) {
 			Log.d(TAG, "Should perform remote sync");
 			final long startRemote = System.currentTimeMillis();
 
-			Editor prefsEditor = syncManager
-					.hasRemoteContentChanged(mHttpClient);
-			if (prefsEditor != null) {
-				Log.d(TAG, "Remote content was changed");
-				mRemoteExecutor.executeGet(SPEAKERS_URL, new SpeakersHandler());
-				mRemoteExecutor.executeGet(PRESENTATIONS_URL,
-						new SessionsHandler());
-				mRemoteExecutor.executeGet(SCHEDULE_URL, new ScheduleHandler());
-				prefsEditor.commit();
+			final HashMap<String, String> changed = syncManager
+					.getChangedRemoteContent(mHttpClient, REMOTE_URLS);
+			if (!changed.isEmpty()) {
+				Log.d(TAG, "Remote content was changed for " + changed.keySet());
+				executeRemote(syncManager, changed, snapshot);
+				syncManager.storeLocalMd5s(changed);
 			}
 			Log.d(TAG, "Remote sync took "
 					+ (System.currentTimeMillis() - startRemote) + "ms");
@@ -158,11 +208,110 @@ public class CfpSyncService extends AbstractSyncService {
 
 		final CfpDatabase database = new CfpDatabase(this);
 		database.cleanupLinkTables();
+		database.checkpoint();
 
 		final NotifierManager notifierManager = new NotifierManager(this);
 		notifierManager.notifyNewSessions();
 
+		ImagePrefetchService.startIfAllowed(context);
+
 		Log.d(TAG, "Sync finished");
 	}
 
+	/**
+	 * Download the given remote feeds concurrently, and apply them one after
+	 * another as soon as each of them is available. Speakers go first, since
+	 * sessions link to them, and the schedule links to sessions.
+	 * <p>
+	 * Feeds in {@link #DELTA_URLS} are requested as a delta from the version
+	 * we have, falling back to the full feed when no delta is available.
+	 * <p>
+	 * The schedule is also applied when only the presentations changed. It
+	 * links new sessions to their block, and removes the sessions that
+	 * aren't scheduled. So it is then requested unconditionally, as its own
+	 * key and content didn't change.
+	 * 
+	 * @param changed
+	 *            the changed urls, mapped to their new remote MD5 key
+	 */
+	private void executeRemote(CfpSyncManager syncManager,
+			HashMap<String, String> changed, SyncSnapshot snapshot)
+			throws Exception {
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(REMOTE_URLS.length);
+		final ArrayList<Future<Download>> downloads = Lists.newArrayList();
+		final boolean[] deltas = new boolean[REMOTE_URLS.length];
+		final boolean forceSchedule = changed.containsKey(PRESENTATIONS_URL)
+				&& !changed.containsKey(SCHEDULE_URL);
+		for (int i = 0; i < REMOTE_URLS.length; i++) {
+			final String url = REMOTE_URLS[i];
+			final boolean forced = forceSchedule && SCHEDULE_URL.equals(url);
+			String requestUrl = null;
+			if (changed.containsKey(url) || forced) {
+				requestUrl = url;
+				if (DELTA_URLS.contains(url)) {
+					final String deltaUrl = syncManager.getDeltaUrl(url,
+							changed.get(url));
+					if (deltaUrl != null) {
+						requestUrl = deltaUrl;
+						deltas[i] = true;
+					}
+				}
+			}
+			downloads.add(requestUrl != null ? mRemoteExecutor.submitGet(
+					executor, requestUrl, getCacheDir(), !forced) : null);
+		}
+		try {
+			for (int i = 0; i < REMOTE_URLS.length; i++) {
+				final Future<Download> download = downloads.get(i);
+				if (download == null) {
+					continue;
+				}
+
+				final String url = REMOTE_URLS[i];
+				if (!deltas[i]) {
+					mRemoteExecutor.execute(download,
+							createRemoteHandler(url, snapshot, false));
+				} else if (!executeDelta(download, url, snapshot)) {
+					mRemoteExecutor.executeGet(url,
+							createRemoteHandler(url, snapshot, false));
+				}
+			}
+		} finally {
+			// Only does something when a previous feed failed
+			for (Future<Download> download : downloads) {
+				if (download != null) {
+					mRemoteExecutor.discard(download);
+				}
+			}
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Apply a delta download, returning false when it wasn't available.
+	 */
+	private boolean executeDelta(Future<Download> download, String url,
+			SyncSnapshot snapshot) {
+		try {
+			mRemoteExecutor.execute(download,
+					createRemoteHandler(url, snapshot, true));
+			return true;
+		} catch (HandlerException e) {
+			Log.d(TAG, "No delta for " + url + ", downloading full feed");
+			return false;
+		}
+	}
+
+	private static JsonHandler createRemoteHandler(String url,
+			SyncSnapshot snapshot, boolean delta) {
+		if (SPEAKERS_URL.equals(url)) {
+			return new SpeakersHandler(snapshot, delta);
+		} else if (PRESENTATIONS_URL.equals(url)) {
+			return new SessionsHandler(snapshot, delta);
+		} else {
+			return new ScheduleHandler(snapshot);
+		}
+	}
+
 }
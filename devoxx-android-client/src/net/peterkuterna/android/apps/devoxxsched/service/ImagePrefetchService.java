@@ -0,0 +1,170 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.peterkuterna.android.apps.devoxxsched.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Speakers;
+import net.peterkuterna.android.apps.devoxxsched.ui.SettingsActivity;
+import net.peterkuterna.android.apps.devoxxsched.util.ImageDownloader;
+import net.peterkuterna.android.apps.devoxxsched.util.Lists;
+import net.peterkuterna.android.apps.devoxxsched.util.NetworkUtils;
+import net.peterkuterna.android.apps.devoxxsched.util.Sets;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Background {@link Service} that downloads the speaker images into the disk
+ * cache of {@link ImageDownloader}, so the speakers grid doesn't have to
+ * fetch them while it is shown.
+ * <p>
+ * Images already in the cache are skipped, so only new or changed ones are
+ * downloaded and an interrupted run picks up where it stopped. Downloads are
+ * spaced out, and stop as soon as the device is neither on WiFi nor
+ * charging anymore. The WiFi only setting of the updates is honoured, so
+ * charging alone never allows downloading over mobile data then.
+ */
+public class ImagePrefetchService extends AbstractSyncService {
+
+	protected static final String TAG = "ImagePrefetchService";
+
+	/** Number of images handled so far, sent with {@link #STATUS_RUNNING}. */
+	public static final String EXTRA_PROGRESS = "net.peterkuterna.android.apps.devoxxsched.extra.PROGRESS";
+	/** Number of images to handle, sent with {@link #STATUS_RUNNING}. */
+	public static final String EXTRA_TOTAL = "net.peterkuterna.android.apps.devoxxsched.extra.TOTAL";
+	/** Number of images downloaded, sent with {@link #STATUS_RUNNING}. */
+	public static final String EXTRA_FETCHED = "net.peterkuterna.android.apps.devoxxsched.extra.FETCHED";
+	/** Number of images that failed, sent with {@link #STATUS_RUNNING}. */
+	public static final String EXTRA_FAILED = "net.peterkuterna.android.apps.devoxxsched.extra.FAILED";
+
+	/** Pause between two downloads, in milliseconds. */
+	private static final long DOWNLOAD_DELAY = 250;
+
+	public ImagePrefetchService() {
+		super(TAG);
+	}
+
+	/**
+	 * Start prefetching when it is enabled in the settings and the device is
+	 * connected to WiFi, or to any network while charging unless updates are
+	 * restricted to WiFi.
+	 */
+	public static void startIfAllowed(Context context) {
+		final boolean enabled = PreferenceManager.getDefaultSharedPreferences(
+				context).getBoolean(SettingsActivity.KEY_PREFETCH_IMAGES, true);
+		if (enabled && isAllowed(context)) {
+			context.startService(new Intent(context,
+					ImagePrefetchService.class));
+		}
+	}
+
+	@Override
+	protected void doSync(Intent intent) throws Exception {
+		final ResultReceiver receiver = intent
+				.getParcelableExtra(EXTRA_STATUS_RECEIVER);
+		final long start = SystemClock.elapsedRealtime();
+
+		final ImageDownloader downloader = new ImageDownloader(this);
+		if (!downloader.hasDiskCache()) {
+			Log.d(TAG, "No disk cache available, not prefetching");
+			return;
+		}
+
+		final ArrayList<String> urls = getImageUrls();
+		int done = 0;
+		int fetched = 0;
+		int failed = 0;
+		for (String url : urls) {
+			if (!downloader.isCached(url)) {
+				if (!isAllowed(this)) {
+					Log.d(TAG, "No longer allowed to download, stopping");
+					break;
+				}
+				if (downloader.prefetch(url)) {
+					fetched++;
+				} else {
+					failed++;
+				}
+				SystemClock.sleep(DOWNLOAD_DELAY);
+			}
+			done++;
+
+			if (receiver != null) {
+				final Bundle bundle = new Bundle();
+				bundle.putInt(EXTRA_PROGRESS, done);
+				bundle.putInt(EXTRA_TOTAL, urls.size());
+				bundle.putInt(EXTRA_FETCHED, fetched);
+				bundle.putInt(EXTRA_FAILED, failed);
+				receiver.send(STATUS_RUNNING, bundle);
+			}
+		}
+
+		Log.d(TAG, "Prefetched " + fetched + " of " + urls.size()
+				+ " images, " + failed + " failed, "
+				+ (done - fetched - failed) + " cached, "
+				+ (urls.size() - done) + " left, took "
+				+ (SystemClock.elapsedRealtime() - start) + "ms");
+	}
+
+	private ArrayList<String> getImageUrls() {
+		final ArrayList<String> urls = Lists.newArrayList();
+		final HashSet<String> seen = Sets.newHashSet();
+		final Cursor cursor = getContentResolver().query(Speakers.CONTENT_URI,
+				new String[] { Speakers.SPEAKER_IMAGE_URL },
+				Speakers.SPEAKER_IMAGE_URL + " IS NOT NULL", null, null);
+		try {
+			while (cursor.moveToNext()) {
+				final String url = cursor.getString(0);
+				if (url.length() > 0 && seen.add(url)) {
+					urls.add(url);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return urls;
+	}
+
+	private static boolean isAllowed(Context context) {
+		if (NetworkUtils.isConnectedToWifi(context)) {
+			return true;
+		}
+		final boolean onlyOnWifi = PreferenceManager
+				.getDefaultSharedPreferences(context).getBoolean(
+						SettingsActivity.KEY_AUTO_UPDATE_WIFI_ONLY, true);
+		return !onlyOnWifi && isCharging(context)
+				&& NetworkUtils.isConnectedToNetwork(context);
+	}
+
+	private static boolean isCharging(Context context) {
+		final Intent battery = context.registerReceiver(null,
+				new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		return battery != null
+				&& battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+	}
+
+}
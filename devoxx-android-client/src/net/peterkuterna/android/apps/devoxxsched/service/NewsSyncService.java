@@ -16,10 +16,12 @@
 
 package net.peterkuterna.android.apps.devoxxsched.service;
 
+import net.peterkuterna.android.apps.devoxxsched.io.HttpValidators;
 import net.peterkuterna.android.apps.devoxxsched.io.LocalExecutor;
 import net.peterkuterna.android.apps.devoxxsched.io.NewsHandler;
 import net.peterkuterna.android.apps.devoxxsched.io.RemoteExecutor;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.News;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase;
 import net.peterkuterna.android.apps.devoxxsched.util.HttpUtils;
 import net.peterkuterna.android.apps.devoxxsched.util.NotifierManager;
 import net.peterkuterna.android.apps.devoxxsched.util.Prefs;
@@ -64,7 +66,8 @@ public class NewsSyncService extends AbstractSyncService {
 		mResolver = getContentResolver();
 
 		mLocalExecutor = new LocalExecutor(getResources(), mResolver);
-		mRemoteExecutor = new RemoteExecutor(mHttpClient, mResolver);
+		mRemoteExecutor = new RemoteExecutor(mHttpClient, mResolver,
+				new HttpValidators(this));
 	}
 
 	@Override
@@ -110,6 +113,8 @@ public class NewsSyncService extends AbstractSyncService {
 			Log.d(TAG, "Should not perform remote sync");
 		}
 
+		new CfpDatabase(this).checkpoint();
+
 		final NotifierManager notifierManager = new NotifierManager(this);
 		notifierManager.notifyNewNewsItems();
 
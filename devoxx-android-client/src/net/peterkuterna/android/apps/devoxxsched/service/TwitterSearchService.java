@@ -16,10 +16,12 @@
 
 package net.peterkuterna.android.apps.devoxxsched.service;
 
+import net.peterkuterna.android.apps.devoxxsched.io.HttpValidators;
 import net.peterkuterna.android.apps.devoxxsched.io.RemoteExecutor;
 import net.peterkuterna.android.apps.devoxxsched.io.TwitterSearchHandler;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract;
 import net.peterkuterna.android.apps.devoxxsched.provider.CfpContract.Tweets;
+import net.peterkuterna.android.apps.devoxxsched.provider.CfpDatabase;
 import net.peterkuterna.android.apps.devoxxsched.util.HttpUtils;
 import net.peterkuterna.android.apps.devoxxsched.util.TwitterApiUriUtils;
 
@@ -55,7 +57,8 @@ public class TwitterSearchService extends AbstractSyncService {
 		mHttpClient = HttpUtils.getHttpClient(this);
 		mResolver = getContentResolver();
 
-		mRemoteExecutor = new RemoteExecutor(mHttpClient, mResolver);
+		mRemoteExecutor = new RemoteExecutor(mHttpClient, mResolver,
+				new HttpValidators(this));
 	}
 
 	@Override
@@ -78,6 +81,8 @@ public class TwitterSearchService extends AbstractSyncService {
 				"from:Devoxx OR #devoxx +exclude:retweets", tweetId);
 
 		mRemoteExecutor.executeGet(uri.toString(), new TwitterSearchHandler());
+
+		new CfpDatabase(this).checkpoint();
 	}
 
 	/**
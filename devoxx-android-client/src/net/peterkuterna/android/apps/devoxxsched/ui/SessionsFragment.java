@@ -218,7 +218,7 @@ public class SessionsFragment extends ListFragment {
 			} else if (id == SearchQuery._TOKEN) {
 				return new CursorLoader(getActivity(), mSessionsUri,
 						SearchQuery.PROJECTION, null, null,
-						CfpContract.Sessions.DEFAULT_SORT);
+						CfpContract.Sessions.SEARCH_SORT);
 			}
 			return null;
 		}
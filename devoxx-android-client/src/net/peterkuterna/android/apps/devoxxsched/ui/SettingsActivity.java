@@ -63,6 +63,7 @@ public class SettingsActivity extends PreferenceActivity {
 
 	public static final String KEY_BACKGROUND_UPDATES = "background_updates";
 	public static final String KEY_AUTO_UPDATE_WIFI_ONLY = "auto_update_wifi_only";
+	public static final String KEY_PREFETCH_IMAGES = "prefetch_images";
 	public static final String KEY_SYNC_GOOGLE_ACCOUNT = "sync_google_account";
 	public static final String KEY_DISCONNECT_GOOGLE_ACCOUNT = "disconnect_google_account";
 
@@ -187,7 +187,7 @@ public class SpeakersListFragment extends ListFragment {
 			} else if (id == SearchQuery._TOKEN) {
 				return new CursorLoader(getActivity(), mSpeakersUri,
 						SearchQuery.PROJECTION, null, null,
-						CfpContract.Speakers.DEFAULT_SORT);
+						CfpContract.Speakers.SEARCH_SORT);
 			}
 			return null;
 		}
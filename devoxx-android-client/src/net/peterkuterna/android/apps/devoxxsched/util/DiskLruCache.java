@@ -0,0 +1,348 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.peterkuterna.android.apps.devoxxsched.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * A cache of files in a directory, limited to a number of bytes.
+ * <p>
+ * The keys present and their sizes are kept in memory, in least recently
+ * used order, so lookups never touch the file system. Every change and
+ * read is appended to a journal, which rebuilds that index when the cache
+ * is opened again. Entries are written to a temporary file first and only
+ * renamed into place when complete, so a reader never sees a partial
+ * entry. The least recently used entries are evicted whenever the cache
+ * grows over its size.
+ * <p>
+ * Keys must be valid file names without white space, like hashes. This
+ * class is thread safe, but opening a cache and writing to it do disk I/O
+ * and shouldn't be done on the UI thread.
+ */
+public class DiskLruCache {
+
+	private static final String TAG = "DiskLruCache";
+
+	private static final String JOURNAL_FILE = "journal";
+	private static final String JOURNAL_FILE_TMP = "journal.tmp";
+	private static final String MAGIC = "devoxxsched.DiskLruCache";
+	private static final String VERSION = "1";
+
+	private static final String CLEAN = "CLEAN";
+	private static final String REMOVE = "REMOVE";
+	private static final String READ = "READ";
+
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/** Number of redundant journal lines before it gets compacted. */
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	private final File mDirectory;
+	private final File mJournalFile;
+	private final long mMaxSize;
+
+	private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(
+			0, 0.75f, true);
+	private long mSize;
+	private int mRedundantOps;
+	private Writer mJournal;
+
+	private DiskLruCache(File directory, long maxSize) {
+		mDirectory = directory;
+		mJournalFile = new File(directory, JOURNAL_FILE);
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * Open the cache in the given directory, creating it when there is none
+	 * yet. A cache with a missing or unreadable journal is emptied.
+	 */
+	public static DiskLruCache open(File directory, long maxSize)
+			throws IOException {
+		final DiskLruCache cache = new DiskLruCache(directory, maxSize);
+		if (cache.mJournalFile.exists()) {
+			try {
+				cache.readJournal();
+				cache.deleteTemporaryFiles();
+				cache.mJournal = newJournalWriter(cache.mJournalFile, true);
+				cache.trimToSize();
+				return cache;
+			} catch (IOException e) {
+				Log.w(TAG, "Journal of " + directory
+						+ " is corrupt, removing the cache", e);
+			}
+		}
+
+		directory.mkdirs();
+		deleteContents(directory);
+		cache.mEntries.clear();
+		cache.mSize = 0;
+		cache.rebuildJournal();
+		return cache;
+	}
+
+	/**
+	 * Return whether an entry is stored for the given key.
+	 */
+	public synchronized boolean contains(String key) {
+		return mEntries.containsKey(key);
+	}
+
+	/**
+	 * Return the file holding the entry for the given key, or {@code null}
+	 * when there is none. The entry becomes the most recently used one.
+	 */
+	public synchronized File get(String key) {
+		if (mEntries.get(key) == null) {
+			return null;
+		}
+
+		appendToJournal(READ + ' ' + key);
+		return getFile(key);
+	}
+
+	/**
+	 * Store the content of the given stream as the entry of the given key,
+	 * replacing any previous one. The stream is not closed.
+	 * 
+	 * @return the file holding the new entry
+	 */
+	public File put(String key, InputStream input) throws IOException {
+		final File tmp = File.createTempFile(key, TMP_SUFFIX, mDirectory);
+		try {
+			long size = 0;
+			final OutputStream output = new FileOutputStream(tmp);
+			try {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				int count;
+				while ((count = input.read(buffer)) != -1) {
+					output.write(buffer, 0, count);
+					size += count;
+				}
+			} finally {
+				output.close();
+			}
+			return commit(key, tmp, size);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Remove the entry for the given key, like when its file turned out to
+	 * be unreadable.
+	 */
+	public synchronized void remove(String key) {
+		final Long size = mEntries.remove(key);
+		if (size != null) {
+			getFile(key).delete();
+			mSize -= size;
+			appendToJournal(REMOVE + ' ' + key);
+		}
+	}
+
+	/**
+	 * Close the journal. The cache can't be written afterwards.
+	 */
+	public synchronized void close() {
+		if (mJournal != null) {
+			try {
+				mJournal.close();
+			} catch (IOException e) {
+				Log.w(TAG, "Problem closing journal of " + mDirectory, e);
+			}
+			mJournal = null;
+		}
+	}
+
+	private synchronized File commit(String key, File tmp, long size)
+			throws IOException {
+		if (mJournal == null) {
+			throw new IOException("Cache " + mDirectory + " is closed");
+		}
+
+		final File file = getFile(key);
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Unable to rename " + tmp + " to " + file);
+		}
+		final Long previous = mEntries.put(key, size);
+		if (previous != null) {
+			mSize -= previous;
+		}
+		mSize += size;
+		appendToJournal(CLEAN + ' ' + key + ' ' + size);
+		trimToSize();
+		return file;
+	}
+
+	private File getFile(String key) {
+		return new File(mDirectory, key);
+	}
+
+	private void trimToSize() {
+		final Iterator<Map.Entry<String, Long>> iterator = mEntries
+				.entrySet().iterator();
+		while (mSize > mMaxSize && iterator.hasNext()) {
+			final Map.Entry<String, Long> eldest = iterator.next();
+			iterator.remove();
+			getFile(eldest.getKey()).delete();
+			mSize -= eldest.getValue();
+			appendToJournal(REMOVE + ' ' + eldest.getKey());
+		}
+	}
+
+	private void appendToJournal(String line) {
+		if (mJournal == null) {
+			return;
+		}
+
+		try {
+			mJournal.write(line);
+			mJournal.write('\n');
+			mJournal.flush();
+			mRedundantOps++;
+			if (mRedundantOps >= REDUNDANT_OP_COMPACT_THRESHOLD
+					&& mRedundantOps >= mEntries.size()) {
+				mJournal.close();
+				mJournal = null;
+				rebuildJournal();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Problem writing journal of " + mDirectory, e);
+		}
+	}
+
+	private void readJournal() throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(mJournalFile), "US-ASCII"));
+		try {
+			if (!MAGIC.equals(reader.readLine())
+					|| !VERSION.equals(reader.readLine())) {
+				throw new IOException("Unexpected journal header");
+			}
+
+			int lineCount = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				readJournalLine(line);
+				lineCount++;
+			}
+			mRedundantOps = lineCount - mEntries.size();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void readJournalLine(String line) throws IOException {
+		final String[] parts = line.split(" ");
+		if (CLEAN.equals(parts[0]) && parts.length == 3) {
+			try {
+				final long size = Long.parseLong(parts[2]);
+				final Long previous = mEntries.put(parts[1], size);
+				if (previous != null) {
+					mSize -= previous;
+				}
+				mSize += size;
+			} catch (NumberFormatException e) {
+				throw new IOException("Unexpected journal line: " + line);
+			}
+		} else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+			final Long previous = mEntries.remove(parts[1]);
+			if (previous != null) {
+				mSize -= previous;
+			}
+		} else if (READ.equals(parts[0]) && parts.length == 2) {
+			mEntries.get(parts[1]);
+		} else {
+			throw new IOException("Unexpected journal line: " + line);
+		}
+	}
+
+	/**
+	 * Write a journal holding only the present entries, and replace the
+	 * current one with it.
+	 */
+	private void rebuildJournal() throws IOException {
+		final File tmp = new File(mDirectory, JOURNAL_FILE_TMP);
+		final Writer writer = newJournalWriter(tmp, false);
+		try {
+			writer.write(MAGIC + '\n' + VERSION + '\n');
+			for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+				writer.write(CLEAN + ' ' + entry.getKey() + ' '
+						+ entry.getValue() + '\n');
+			}
+		} finally {
+			writer.close();
+		}
+		if (!tmp.renameTo(mJournalFile)) {
+			throw new IOException("Unable to rename " + tmp + " to "
+					+ mJournalFile);
+		}
+		mJournal = newJournalWriter(mJournalFile, true);
+		mRedundantOps = 0;
+	}
+
+	/**
+	 * Delete the temporary files left by writes interrupted by the process
+	 * being killed.
+	 */
+	private void deleteTemporaryFiles() {
+		final File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(TMP_SUFFIX)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private static Writer newJournalWriter(File file, boolean append)
+			throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				file, append), "US-ASCII"));
+	}
+
+	private static void deleteContents(File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+}
@@ -33,6 +33,8 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.HttpClient;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -64,6 +66,8 @@ public class HttpUtils {
 	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
 	private static final String ENCODING_GZIP = "gzip";
 
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+
 	/**
 	 * Generate and return a {@link HttpClient} configured for general use,
 	 * including setting an application-specific user-agent string.
@@ -159,6 +163,10 @@ public class HttpUtils {
 			HttpConnectionParams.setSoTimeout(params, 20 * SECOND_IN_MILLIS);
 
 			HttpConnectionParams.setSocketBufferSize(params, 8192);
+
+			// Allow the CFP feeds to be downloaded in parallel
+			ConnManagerParams.setMaxConnectionsPerRoute(params,
+					new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
 			HttpProtocolParams.setUserAgent(params, buildUserAgent(mContext));
 
 			final SchemeRegistry schemeReg = new SchemeRegistry();
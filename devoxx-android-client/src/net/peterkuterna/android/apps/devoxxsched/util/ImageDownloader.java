@@ -18,16 +18,18 @@
 package net.peterkuterna.android.apps.devoxxsched.util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -36,15 +38,19 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
 import android.util.Log;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
 /**
@@ -67,9 +73,12 @@ public class ImageDownloader {
 
 	private HttpClient mClient;
 
+	private final LruCache<String, Bitmap> mBitmapCache;
+
 	public ImageDownloader(Context context) {
 		this.mContext = context;
 		this.mClient = HttpUtils.getHttpClient(context);
+		this.mBitmapCache = getBitmapCache(context);
 	}
 
 	/**
@@ -86,13 +95,15 @@ public class ImageDownloader {
 	 *            The resource id to use as empty view
 	 */
 	public void download(String url, ImageView imageView, int emptyResId) {
-		resetPurgeTimer();
-		Bitmap bitmap = getBitmapFromCache(url);
+		final int width = getTargetWidth(imageView);
+		final int height = getTargetHeight(imageView);
+		Bitmap bitmap = getBitmapFromCache(url, width, height);
 
 		if (bitmap == null) {
-			forceDownload(url, imageView, emptyResId);
+			forceDownload(url, imageView, emptyResId, width, height);
 		} else {
-			cancelPotentialDownload(url, imageView);
+			cancelPotentialDownload(getMemoryKey(url, width, height),
+					imageView);
 			imageView.setImageBitmap(bitmap);
 		}
 	}
@@ -100,8 +111,13 @@ public class ImageDownloader {
 	/**
 	 * Same as download but the image is always downloaded and the cache is not
 	 * used. Kept private at the moment as its interest is not clear.
+	 * <p>
+	 * Views waiting for the same image at the same size share one request.
+	 * A request that is still queued moves to the front of the queue when
+	 * another view starts waiting for it.
 	 */
-	private void forceDownload(String url, ImageView imageView, int emptyResId) {
+	private void forceDownload(String url, ImageView imageView,
+			int emptyResId, int width, int height) {
 		// State sanity: url is guaranteed to never be null in
 		// DownloadedDrawable and cache keys.
 		if (url == null) {
@@ -109,32 +125,41 @@ public class ImageDownloader {
 			return;
 		}
 
-		if (cancelPotentialDownload(url, imageView)) {
-			BitmapDownloaderTask task = new BitmapDownloaderTask(imageView);
+		final String key = getMemoryKey(url, width, height);
+		if (cancelPotentialDownload(key, imageView)) {
+			BitmapRequest request = sRequests.get(key);
+			if (request == null) {
+				request = new BitmapRequest(this, key, url, width, height);
+				sRequests.put(key, request);
+				sExecutor.execute(request);
+			} else if (sExecutor.remove(request)) {
+				request.sequence = sNextSequence++;
+				sExecutor.execute(request);
+			}
+			request.addWaiter(imageView);
+
 			DownloadedDrawable downloadedDrawable = new DownloadedDrawable(
-					mContext, task, emptyResId);
+					mContext, request, emptyResId);
 			imageView.setImageDrawable(downloadedDrawable);
 			imageView.setMinimumHeight(156);
-			task.execute(url);
 		}
 	}
 
 	/**
 	 * Returns true if the current download has been canceled or if there was no
 	 * download in progress on this image view. Returns false if the download in
-	 * progress deals with the same url. The download is not stopped in that
-	 * case.
+	 * progress deals with the same image. The download is not stopped in that
+	 * case, nor when other views still wait for it.
 	 */
-	private static boolean cancelPotentialDownload(String url,
+	private static boolean cancelPotentialDownload(String key,
 			ImageView imageView) {
-		BitmapDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
+		BitmapRequest bitmapRequest = getBitmapRequest(imageView);
 
-		if (bitmapDownloaderTask != null) {
-			String bitmapUrl = bitmapDownloaderTask.url;
-			if ((bitmapUrl == null) || (!bitmapUrl.equals(url))) {
-				bitmapDownloaderTask.cancel(true);
+		if (bitmapRequest != null) {
+			if (!bitmapRequest.key.equals(key)) {
+				bitmapRequest.removeWaiter(imageView);
 			} else {
-				// The same URL is already being downloaded.
+				// The same image is already being downloaded.
 				return false;
 			}
 		}
@@ -144,41 +169,128 @@ public class ImageDownloader {
 	/**
 	 * @param imageView
 	 *            Any imageView
-	 * @return Retrieve the currently active download task (if any) associated
-	 *         with this imageView. null if there is no such task.
+	 * @return Retrieve the currently active request (if any) associated with
+	 *         this imageView. null if there is no such request.
 	 */
-	private static BitmapDownloaderTask getBitmapDownloaderTask(
-			ImageView imageView) {
+	private static BitmapRequest getBitmapRequest(ImageView imageView) {
 		if (imageView != null) {
 			Drawable drawable = imageView.getDrawable();
 			if (drawable instanceof DownloadedDrawable) {
 				DownloadedDrawable downloadedDrawable = (DownloadedDrawable) drawable;
-				return downloadedDrawable.getBitmapDownloaderTask();
+				return downloadedDrawable.getBitmapRequest();
 			}
 		}
 		return null;
 	}
 
-	Bitmap downloadBitmap(String url) {
-		final int IO_BUFFER_SIZE = 4 * 1024;
+	/**
+	 * Load the bitmap of the given URL from the disk cache, or download it
+	 * when it isn't there yet. It is decoded at the smallest scale still
+	 * covering the given size. Does disk I/O, so never call this on the UI
+	 * thread.
+	 */
+	Bitmap loadBitmap(String url, int width, int height) {
+		final String cacheKey = getCacheKey(url);
+		final DiskLruCache diskCache = cacheKey != null ? getDiskCache(mContext)
+				: null;
+		if (diskCache != null) {
+			final File cacheFile = diskCache.get(cacheKey);
+			if (cacheFile != null) {
+				final Bitmap bitmap;
+				try {
+					bitmap = decodeFile(cacheFile, width, height);
+				} catch (OutOfMemoryError e) {
+					// The cached image is fine, there's just no room for it now
+					Log.w(TAG, "Out of memory while decoding bitmap " + url);
+					return null;
+				}
+				if (bitmap != null) {
+					return bitmap;
+				}
+				diskCache.remove(cacheKey);
+			}
+		}
+		return downloadBitmap(url, diskCache, cacheKey, width, height);
+	}
+
+	/**
+	 * Return whether images can be kept on disk, which is needed for
+	 * {@link #prefetch}. Does disk I/O, so never call this on the UI thread.
+	 */
+	public boolean hasDiskCache() {
+		return getDiskCache(mContext) != null;
+	}
+
+	/**
+	 * Return whether the image of the given URL is in the disk cache. Does
+	 * disk I/O, so never call this on the UI thread.
+	 */
+	public boolean isCached(String url) {
+		final String cacheKey = getCacheKey(url);
+		final DiskLruCache diskCache = cacheKey != null ? getDiskCache(mContext)
+				: null;
+		return diskCache != null && diskCache.contains(cacheKey);
+	}
+
+	/**
+	 * Download the image of the given URL into the disk cache without
+	 * decoding it, so it can be shown later without going to the network.
+	 * Never call this on the UI thread.
+	 * 
+	 * @return whether the image is in the disk cache afterwards
+	 */
+	public boolean prefetch(String url) {
+		final String cacheKey = getCacheKey(url);
+		final DiskLruCache diskCache = cacheKey != null ? getDiskCache(mContext)
+				: null;
+		if (diskCache == null) {
+			return false;
+		}
+		if (diskCache.contains(cacheKey)) {
+			return true;
+		}
 
-		File cacheFile = null;
+		HttpGet getRequest = null;
 		try {
-			MessageDigest mDigest = MessageDigest.getInstance("SHA-1");
-			mDigest.update(url.getBytes());
-			final String cacheKey = bytesToHexString(mDigest.digest());
-			if (Environment.MEDIA_MOUNTED.equals(Environment
-					.getExternalStorageState())) {
-				cacheFile = new File(Environment.getExternalStorageDirectory()
-						+ File.separator + "Android" + File.separator + "data"
-						+ File.separator + mContext.getPackageName()
-						+ File.separator + "cache" + File.separator + "bitmap_"
-						+ cacheKey + ".tmp");
+			getRequest = new HttpGet(url);
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG,
+					"Error while constructing get request: " + e.getMessage());
+			return false;
+		}
+
+		try {
+			HttpResponse response = mClient.execute(getRequest);
+			final int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode != HttpStatus.SC_OK) {
+				Log.w(TAG, "Error " + statusCode
+						+ " while prefetching bitmap from " + url);
+				getRequest.abort();
+				return false;
 			}
-		} catch (NoSuchAlgorithmException e) {
-			// Oh well, SHA-1 not available (weird), don't cache bitmaps.
+
+			final HttpEntity entity = response.getEntity();
+			if (entity != null) {
+				final InputStream input = entity.getContent();
+				try {
+					diskCache.put(cacheKey, input);
+					return true;
+				} finally {
+					input.close();
+				}
+			}
+		} catch (IOException e) {
+			getRequest.abort();
+			Log.w(TAG, "I/O error while prefetching bitmap from " + url, e);
+		} catch (IllegalStateException e) {
+			getRequest.abort();
+			Log.w(TAG, "Incorrect URL: " + url);
 		}
+		return false;
+	}
 
+	Bitmap downloadBitmap(String url, DiskLruCache diskCache,
+			String cacheKey, int width, int height) {
 		HttpGet getRequest = null;
 		try {
 			getRequest = new HttpGet(url);
@@ -199,26 +311,32 @@ public class ImageDownloader {
 
 			final HttpEntity entity = response.getEntity();
 			if (entity != null) {
-				final byte[] respBytes = EntityUtils.toByteArray(entity);
-
-				if (cacheFile != null) {
+				if (diskCache != null) {
+					// Stream straight into the cache and decode from there
+					File cacheFile = null;
+					final InputStream input = entity.getContent();
 					try {
-						cacheFile.getParentFile().mkdirs();
-						cacheFile.createNewFile();
-						FileOutputStream fos = new FileOutputStream(cacheFile);
-						fos.write(respBytes);
-						fos.close();
-					} catch (FileNotFoundException e) {
-						Log.w(TAG, "Error writing to bitmap cache: "
-								+ cacheFile.toString(), e);
+						cacheFile = diskCache.put(cacheKey, input);
 					} catch (IOException e) {
-						Log.w(TAG, "Error writing to bitmap cache: "
-								+ cacheFile.toString(), e);
+						getRequest.abort();
+						Log.w(TAG, "Error writing to bitmap cache: " + url, e);
+					} finally {
+						input.close();
+					}
+					if (cacheFile != null) {
+						final Bitmap bitmap = decodeFile(cacheFile, width,
+								height);
+						if (bitmap != null || cacheFile.exists()) {
+							return bitmap;
+						}
 					}
+					// The cache couldn't keep the image, like when the
+					// storage is full, so download it again into memory
+					return downloadBitmap(url, null, null, width, height);
 				}
 
-				return BitmapFactory.decodeByteArray(respBytes, 0,
-						respBytes.length);
+				final byte[] respBytes = EntityUtils.toByteArray(entity);
+				return decodeByteArray(respBytes, width, height);
 			}
 		} catch (IOException e) {
 			getRequest.abort();
@@ -229,54 +347,235 @@ public class ImageDownloader {
 		} catch (Exception e) {
 			getRequest.abort();
 			Log.w(TAG, "Error while retrieving bitmap from " + url, e);
+		} catch (OutOfMemoryError e) {
+			getRequest.abort();
+			Log.w(TAG, "Out of memory while decoding bitmap " + url);
 		}
 		return null;
 	}
 
+	/*
+	 * Decoding-related fields and methods.
+	 * 
+	 * Images are decoded in two passes: the first one only reads their
+	 * bounds, the second one decodes them subsampled to the size they will
+	 * be shown at. Each decoding thread reuses its own temporary buffer.
+	 */
+
+	private static final int DECODE_BUFFER_SIZE = 16 * 1024;
+
+	private static final ThreadLocal<byte[]> sDecodeBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[DECODE_BUFFER_SIZE];
+		}
+	};
+
+	private static Bitmap decodeFile(File file, int width, int height) {
+		final BitmapFactory.Options options = newDecodeOptions();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getPath(), options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = getSampleSize(options, width, height);
+		return BitmapFactory.decodeFile(file.getPath(), options);
+	}
+
+	private static Bitmap decodeByteArray(byte[] data, int width, int height) {
+		final BitmapFactory.Options options = newDecodeOptions();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = getSampleSize(options, width, height);
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	private static BitmapFactory.Options newDecodeOptions() {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inTempStorage = sDecodeBuffer.get();
+		return options;
+	}
+
+	/**
+	 * Return the largest power of two to subsample the decoded bounds with,
+	 * keeping the image at least as large as the given size.
+	 */
+	private static int getSampleSize(BitmapFactory.Options bounds, int width,
+			int height) {
+		int sampleSize = 1;
+		while (bounds.outWidth / (sampleSize * 2) >= width
+				&& bounds.outHeight / (sampleSize * 2) >= height) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * @return The width the image will be shown at, from the layout of the
+	 *         view when known, or the width of the display otherwise.
+	 */
+	private static int getTargetWidth(ImageView imageView) {
+		final ViewGroup.LayoutParams params = imageView.getLayoutParams();
+		if (params != null && params.width > 0) {
+			return params.width;
+		}
+		if (imageView.getWidth() > 0) {
+			return imageView.getWidth();
+		}
+		return imageView.getResources().getDisplayMetrics().widthPixels;
+	}
+
+	/**
+	 * @return The height the image will be shown at, from the layout of the
+	 *         view when known, or the height of the display otherwise.
+	 */
+	private static int getTargetHeight(ImageView imageView) {
+		final ViewGroup.LayoutParams params = imageView.getLayoutParams();
+		if (params != null && params.height > 0) {
+			return params.height;
+		}
+		if (imageView.getHeight() > 0) {
+			return imageView.getHeight();
+		}
+		return imageView.getResources().getDisplayMetrics().heightPixels;
+	}
+
+	/*
+	 * Request-related fields and methods.
+	 * 
+	 * Images are loaded by a small pool of background threads. The most
+	 * recently requested images are loaded first, since those are the ones
+	 * on screen when scrolling fast. Requests are only created, joined and
+	 * cancelled on the UI thread.
+	 */
+
+	private static final int DOWNLOAD_THREADS = 3;
+
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+			DOWNLOAD_THREADS, DOWNLOAD_THREADS, 0L, TimeUnit.MILLISECONDS,
+			new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger(1);
+
+				public Thread newThread(final Runnable r) {
+					return new Thread(new Runnable() {
+						public void run() {
+							Process.setThreadPriority(
+									Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "ImageDownloader #" + mCount.getAndIncrement());
+				}
+			});
+
+	private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+	// Requests in progress, by memory cache key
+	private static final HashMap<String, BitmapRequest> sRequests = Maps
+			.newHashMap();
+
+	private static int sNextSequence;
+
 	/**
-	 * The actual AsyncTask that will asynchronously download the image.
+	 * The request for one image at one size, shared by all the views waiting
+	 * for it.
 	 */
-	class BitmapDownloaderTask extends AsyncTask<String, Void, Bitmap> {
-		private String url;
-		private final WeakReference<ImageView> imageViewReference;
+	static class BitmapRequest implements Runnable,
+			Comparable<BitmapRequest> {
+		private final ImageDownloader downloader;
+		private final String key;
+		private final String url;
+		private final int width;
+		private final int height;
+		private final ArrayList<WeakReference<ImageView>> waiters = Lists
+				.newArrayList();
+		private int sequence = sNextSequence++;
+
+		public BitmapRequest(ImageDownloader downloader, String key,
+				String url, int width, int height) {
+			this.downloader = downloader;
+			this.key = key;
+			this.url = url;
+			this.width = width;
+			this.height = height;
+		}
 
-		public BitmapDownloaderTask(ImageView imageView) {
-			imageViewReference = new WeakReference<ImageView>(imageView);
+		void addWaiter(ImageView imageView) {
+			waiters.add(new WeakReference<ImageView>(imageView));
 		}
 
 		/**
-		 * Actual download method.
+		 * Stop waiting on behalf of the given view, cancelling the request
+		 * when no view is waiting anymore and it didn't start yet. Requests
+		 * already running are completed and cached.
 		 */
-		@Override
-		protected Bitmap doInBackground(String... params) {
-			url = params[0];
-			return downloadBitmap(url);
+		void removeWaiter(ImageView imageView) {
+			for (int i = waiters.size() - 1; i >= 0; i--) {
+				final ImageView waiter = waiters.get(i).get();
+				if (waiter == null || waiter == imageView) {
+					waiters.remove(i);
+				}
+			}
+			if (waiters.isEmpty() && sExecutor.remove(this)) {
+				sRequests.remove(key);
+			}
 		}
 
 		/**
-		 * Once the image is downloaded, associates it to the imageView
+		 * Actual download method. The request is always completed, even when
+		 * loading failed, so it doesn't stay in {@link #sRequests}.
 		 */
-		@Override
-		protected void onPostExecute(Bitmap bitmap) {
-			if (isCancelled()) {
-				bitmap = null;
+		public void run() {
+			Bitmap bitmap = null;
+			try {
+				bitmap = downloader.loadBitmap(url, width, height);
+			} finally {
+				final Bitmap loaded = bitmap;
+				sHandler.post(new Runnable() {
+					public void run() {
+						onLoaded(loaded);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Once the image is downloaded, associates it to the views still
+		 * waiting for it
+		 */
+		private void onLoaded(Bitmap bitmap) {
+			if (sRequests.get(key) == this) {
+				sRequests.remove(key);
 			}
 
-			addBitmapToCache(url, bitmap);
-
-			if (bitmap != null && imageViewReference != null) {
-				ImageView imageView = imageViewReference.get();
-				BitmapDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
-				// Change bitmap only if this process is still associated with
-				// it
-				// Or if we don't use any bitmap to task association
-				// (NO_DOWNLOADED_DRAWABLE mode)
-				if (this == bitmapDownloaderTask) {
-					ImageViewUtils.setBitmapWithFade(imageView, bitmap);
+			downloader.addBitmapToCache(url, width, height, bitmap);
+
+			if (bitmap != null) {
+				for (WeakReference<ImageView> waiter : waiters) {
+					final ImageView imageView = waiter.get();
+					// Change bitmap only if this request is still associated
+					// with it
+					if (imageView != null
+							&& this == getBitmapRequest(imageView)) {
+						ImageViewUtils.setBitmapWithFade(imageView, bitmap);
+					}
 				}
 			}
+			waiters.clear();
 		}
 
+		/**
+		 * Most recent requests first.
+		 */
+		public int compareTo(BitmapRequest another) {
+			return another.sequence - sequence;
+		}
 	}
 
 	/**
@@ -284,66 +583,47 @@ public class ImageDownloader {
 	 * is in progress.
 	 * 
 	 * <p>
-	 * Contains a reference to the actual download task, so that a download task
-	 * can be stopped if a new binding is required, and makes sure that only the
+	 * Contains a reference to the actual download request, so that a request
+	 * can be left if a new binding is required, and makes sure that only the
 	 * last started download process can bind its result, independently of the
 	 * download finish order.
 	 * </p>
 	 */
 	static class DownloadedDrawable extends BitmapDrawable {
-		private final WeakReference<BitmapDownloaderTask> bitmapDownloaderTaskReference;
+		private final WeakReference<BitmapRequest> bitmapRequestReference;
 
-		public DownloadedDrawable(Context context,
-				BitmapDownloaderTask bitmapDownloaderTask, int emptyResId) {
+		public DownloadedDrawable(Context context, BitmapRequest bitmapRequest,
+				int emptyResId) {
 			super(BitmapFactory.decodeResource(context.getResources(),
 					emptyResId));
-			bitmapDownloaderTaskReference = new WeakReference<BitmapDownloaderTask>(
-					bitmapDownloaderTask);
+			bitmapRequestReference = new WeakReference<BitmapRequest>(
+					bitmapRequest);
 		}
 
-		public BitmapDownloaderTask getBitmapDownloaderTask() {
-			return bitmapDownloaderTaskReference.get();
+		public BitmapRequest getBitmapRequest() {
+			return bitmapRequestReference.get();
 		}
 	}
 
 	/*
 	 * Cache-related fields and methods.
 	 * 
-	 * We use a hard and a soft cache. A soft reference cache is too
-	 * aggressively cleared by the Garbage Collector.
+	 * Decoded bitmaps are kept in a memory cache shared by all downloaders,
+	 * bounded by the bytes they take rather than by their number. Downloaded
+	 * images are kept in a disk cache as well.
 	 */
 
-	private static final int HARD_CACHE_CAPACITY = 50;
-	private static final int DELAY_BEFORE_PURGE = 10 * 1000; // in milliseconds
+	/** Fraction of the memory class of the application used for bitmaps. */
+	private static final int MEMORY_CACHE_DIVIDER = 8;
 
-	// Hard cache, with a fixed maximum capacity and a life duration
-	private final HashMap<String, Bitmap> sHardBitmapCache = new LinkedHashMap<String, Bitmap>(
-			HARD_CACHE_CAPACITY / 2, 0.75f, true) {
-		@Override
-		protected boolean removeEldestEntry(
-				LinkedHashMap.Entry<String, Bitmap> eldest) {
-			if (size() > HARD_CACHE_CAPACITY) {
-				// Entries push-out of hard reference cache are transferred to
-				// soft reference cache
-				sSoftBitmapCache.put(eldest.getKey(),
-						new SoftReference<Bitmap>(eldest.getValue()));
-				return true;
-			} else
-				return false;
-		}
-	};
+	private static final String DISK_CACHE_DIR = "images";
+	private static final long DISK_CACHE_SIZE = 10 * 1024 * 1024; // in bytes
 
-	// Soft cache for bitmaps kicked out of hard cache
-	private final static ConcurrentHashMap<String, SoftReference<Bitmap>> sSoftBitmapCache = new ConcurrentHashMap<String, SoftReference<Bitmap>>(
-			HARD_CACHE_CAPACITY / 2);
+	// Memory cache, shared by all downloaders
+	private static LruCache<String, Bitmap> sBitmapCache;
 
-	private final Handler purgeHandler = new Handler();
-
-	private final Runnable purger = new Runnable() {
-		public void run() {
-			clearCache();
-		}
-	};
+	// Disk cache, shared by all downloaders and opened on first use
+	private static DiskLruCache sDiskCache;
 
 	/**
 	 * Adds this bitmap to the cache.
@@ -351,11 +631,10 @@ public class ImageDownloader {
 	 * @param bitmap
 	 *            The newly downloaded bitmap.
 	 */
-	private void addBitmapToCache(String url, Bitmap bitmap) {
+	private void addBitmapToCache(String url, int width, int height,
+			Bitmap bitmap) {
 		if (bitmap != null) {
-			synchronized (sHardBitmapCache) {
-				sHardBitmapCache.put(url, bitmap);
-			}
+			mBitmapCache.put(getMemoryKey(url, width, height), bitmap);
 		}
 	}
 
@@ -364,82 +643,105 @@ public class ImageDownloader {
 	 *            The URL of the image that will be retrieved from the cache.
 	 * @return The cached bitmap or null if it was not found.
 	 */
-	private Bitmap getBitmapFromCache(String url) {
-		if (url != null) {
-			// First try the hard reference cache
-			synchronized (sHardBitmapCache) {
-				final Bitmap bitmap = sHardBitmapCache.get(url);
-				if (bitmap != null) {
-					// Bitmap found in hard cache
-					// Move element to first position, so that it is removed
-					// last
-					sHardBitmapCache.remove(url);
-					sHardBitmapCache.put(url, bitmap);
-					return bitmap;
-				}
-			}
+	private Bitmap getBitmapFromCache(String url, int width, int height) {
+		// The disk cache is only read by the download tasks
+		return url != null ? mBitmapCache.get(getMemoryKey(url, width,
+				height)) : null;
+	}
 
-			// Then try the soft reference cache
-			SoftReference<Bitmap> bitmapReference = sSoftBitmapCache.get(url);
-			if (bitmapReference != null) {
-				final Bitmap bitmap = bitmapReference.get();
-				if (bitmap != null) {
-					// Bitmap found in soft cache
-					return bitmap;
-				} else {
-					// Soft reference has been Garbage Collected
-					sSoftBitmapCache.remove(url);
-				}
-			}
+	/**
+	 * Bitmaps are decoded for the size of their view, so the same URL is
+	 * cached once per size.
+	 */
+	private static String getMemoryKey(String url, int width, int height) {
+		return url + '#' + width + 'x' + height;
+	}
 
-			File cacheFile = null;
-			try {
-				MessageDigest mDigest = MessageDigest.getInstance("SHA-1");
-				mDigest.update(url.getBytes());
-				final String cacheKey = bytesToHexString(mDigest.digest());
-				if (Environment.MEDIA_MOUNTED.equals(Environment
-						.getExternalStorageState())) {
-					cacheFile = new File(
-							Environment.getExternalStorageDirectory()
-									+ File.separator + "Android"
-									+ File.separator + "data" + File.separator
-									+ mContext.getPackageName()
-									+ File.separator + "cache" + File.separator
-									+ "bitmap_" + cacheKey + ".tmp");
-				}
-			} catch (NoSuchAlgorithmException e) {
-				// Oh well, SHA-1 not available (weird), don't cache bitmaps.
+	/**
+	 * Clears the memory cache of decoded images, shared by all downloaders.
+	 */
+	public void clearCache() {
+		mBitmapCache.evictAll();
+	}
+
+	/**
+	 * Return the memory cache shared by all downloaders, creating it on first
+	 * use with a size based on the memory class of the device.
+	 */
+	private static LruCache<String, Bitmap> getBitmapCache(Context context) {
+		synchronized (ImageDownloader.class) {
+			if (sBitmapCache == null) {
+				final int memoryClass = ((ActivityManager) context
+						.getSystemService(Context.ACTIVITY_SERVICE))
+						.getMemoryClass();
+				final int maxSize = memoryClass * 1024 * 1024
+						/ MEMORY_CACHE_DIVIDER;
+				sBitmapCache = new LruCache<String, Bitmap>(maxSize) {
+					@Override
+					protected int sizeOf(String key, Bitmap bitmap) {
+						return bitmap.getRowBytes() * bitmap.getHeight();
+					}
+				};
 			}
+			return sBitmapCache;
+		}
+	}
 
-			if (cacheFile != null && cacheFile.exists()) {
-				Bitmap cachedBitmap = BitmapFactory.decodeFile(cacheFile
-						.toString());
-				if (cachedBitmap != null) {
-					addBitmapToCache(url, cachedBitmap);
-					return cachedBitmap;
+	/**
+	 * Return the disk cache shared by all downloaders, opening it on first
+	 * use, or {@code null} when external storage isn't available.
+	 */
+	private static DiskLruCache getDiskCache(Context context) {
+		synchronized (ImageDownloader.class) {
+			if (sDiskCache == null
+					&& Environment.MEDIA_MOUNTED.equals(Environment
+							.getExternalStorageState())) {
+				final File cacheDir = new File(
+						Environment.getExternalStorageDirectory()
+								+ File.separator + "Android" + File.separator
+								+ "data" + File.separator
+								+ context.getPackageName() + File.separator
+								+ "cache");
+				deleteLegacyCacheFiles(cacheDir);
+				try {
+					sDiskCache = DiskLruCache.open(new File(cacheDir,
+							DISK_CACHE_DIR), DISK_CACHE_SIZE);
+				} catch (IOException e) {
+					Log.w(TAG, "Error opening bitmap cache", e);
 				}
 			}
+			return sDiskCache;
 		}
-
-		return null;
 	}
 
 	/**
-	 * Clears the image cache used internally to improve performance. Note that
-	 * for memory efficiency reasons, the cache will automatically be cleared
-	 * after a certain inactivity delay.
+	 * Delete the files of the unbounded cache used by earlier versions.
 	 */
-	public void clearCache() {
-		sHardBitmapCache.clear();
-		sSoftBitmapCache.clear();
+	private static void deleteLegacyCacheFiles(File cacheDir) {
+		final File[] files = cacheDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				final String name = file.getName();
+				if (name.startsWith("bitmap_") && name.endsWith(".tmp")) {
+					file.delete();
+				}
+			}
+		}
 	}
 
 	/**
-	 * Allow a new delay before the automatic cache clear is done.
+	 * @return The name of the disk cache entry of the given URL, or null
+	 *         when SHA-1 is not available.
 	 */
-	private void resetPurgeTimer() {
-		purgeHandler.removeCallbacks(purger);
-		purgeHandler.postDelayed(purger, DELAY_BEFORE_PURGE);
+	private static String getCacheKey(String url) {
+		try {
+			MessageDigest mDigest = MessageDigest.getInstance("SHA-1");
+			mDigest.update(url.getBytes());
+			return bytesToHexString(mDigest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			// Oh well, SHA-1 not available (weird), don't cache bitmaps.
+			return null;
+		}
 	}
 
 	private static String bytesToHexString(byte[] bytes) {
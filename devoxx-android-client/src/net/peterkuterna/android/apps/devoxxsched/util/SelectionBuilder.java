@@ -18,6 +18,7 @@
  * Modifications:
  * -Imported from AOSP frameworks/base/core/java/com/android/internal/content
  * -Changed package name
+ * -Added buildQuery() and getTable()
  */
 
 package net.peterkuterna.android.apps.devoxxsched.util;
@@ -29,6 +30,7 @@ import java.util.Map;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -97,6 +99,10 @@ public class SelectionBuilder {
 		return this;
 	}
 
+	public String getTable() {
+		return mTable;
+	}
+
 	private void assertTable() {
 		if (mTable == null) {
 			throw new IllegalStateException("Table not specified");
@@ -169,6 +175,19 @@ public class SelectionBuilder {
 				groupBy, having, orderBy, limit);
 	}
 
+	/**
+	 * Build the {@code SELECT} statement {@link #query(SQLiteDatabase,
+	 * String[], String)} would execute, to be run with
+	 * {@link #getSelectionArgs()}.
+	 */
+	public String buildQuery(String[] columns, String orderBy) {
+		assertTable();
+		if (columns != null)
+			mapColumns(columns);
+		return SQLiteQueryBuilder.buildQueryString(false, mTable, columns,
+				getSelection(), mGroupBy, null, orderBy, null);
+	}
+
 	/**
 	 * Execute update using the current internal state as {@code WHERE} clause.
 	 */
@@ -0,0 +1,44 @@
+#!/bin/sh
+#
+# Copyright 2011 Peter Kuterna
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Generates assets/schedule.db.gz from the local sources (res/xml and the
+# cache-*.json assets). Run it after changing any of those, with a debug
+# build of the app installed on a running emulator.
+
+set -e
+
+PKG=net.peterkuterna.android.apps.devoxxsched
+EXPORT=/data/data/$PKG/cache/prebuilt-schedule.db
+ASSETS=$(dirname "$0")/../assets
+
+adb root
+adb wait-for-device
+
+# Start from an empty database
+adb shell pm clear $PKG
+adb shell am startservice -n $PKG/.service.CfpSyncService \
+	-a $PKG.action.GENERATE_DATABASE
+
+echo "Waiting for the database to be generated"
+while ! adb shell ls $EXPORT | grep -q "^$EXPORT"; do
+	sleep 1
+done
+
+adb pull $EXPORT "$ASSETS/schedule.db"
+gzip -9 -f "$ASSETS/schedule.db"
+adb shell rm $EXPORT
+
+echo "Generated $ASSETS/schedule.db.gz"
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.peterkuterna.appengine.apps.devoxxsched.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * The changes needed to bring a client from one version of a feed to
+ * another, both identified by their MD5 key. The content is a JSON object
+ * holding the {@code changed} entities and the {@code removed} entity ids.
+ */
+@PersistenceCapable
+public class FeedDelta implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@PrimaryKey
+	@Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+	private Key key;
+
+	@Persistent
+	private String requestUri;
+
+	@Persistent
+	private String fromMd5;
+
+	@Persistent
+	private String toMd5;
+
+	@Persistent
+	private Date date;
+
+	@Persistent
+	private Text content;
+
+	public FeedDelta(String requestUri, String fromMd5, String toMd5,
+			Date date, String content) {
+		this.requestUri = requestUri;
+		this.fromMd5 = fromMd5;
+		this.toMd5 = toMd5;
+		this.date = date;
+		this.content = new Text(content);
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+	public String getRequestUri() {
+		return requestUri;
+	}
+
+	public String getFromMd5() {
+		return fromMd5;
+	}
+
+	public String getToMd5() {
+		return toMd5;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public String getContent() {
+		return content.getValue();
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.peterkuterna.appengine.apps.devoxxsched.model;
+
+import java.util.Date;
+
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * Per-entity hashes of a version of a feed, identified by its MD5 key. Used
+ * to compute {@link FeedDelta}s towards newer versions of the feed.
+ */
+@PersistenceCapable
+public class FeedSnapshot {
+
+	@PrimaryKey
+	@Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+	private Key key;
+
+	@Persistent
+	private String requestUri;
+
+	@Persistent
+	private String md5;
+
+	@Persistent
+	private Date date;
+
+	/**
+	 * JSON object mapping each entity id to the hash of its content.
+	 */
+	@Persistent
+	private Text entityHashes;
+
+	public FeedSnapshot(String requestUri, String md5, Date date,
+			String entityHashes) {
+		this.requestUri = requestUri;
+		this.md5 = md5;
+		this.date = date;
+		this.entityHashes = new Text(entityHashes);
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+	public String getRequestUri() {
+		return requestUri;
+	}
+
+	public String getMd5() {
+		return md5;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public String getEntityHashes() {
+		return entityHashes.getValue();
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.peterkuterna.appengine.apps.devoxxsched.servlet;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.peterkuterna.appengine.apps.devoxxsched.model.RequestHash;
+import net.peterkuterna.appengine.apps.devoxxsched.util.FeedDeltas;
+import net.peterkuterna.appengine.apps.devoxxsched.util.Md5Calculator;
+
+import com.google.android.c2dm.server.PMF;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Task that recalculates the MD5 key of a single request uri. The
+ * {@link RequestHash} is only written when the key changed, and the cached
+ * copy is replaced instead of evicted, so clients never fall through to the
+ * datastore after a recalculation.
+ * <p>
+ * The entities of the feed are collected during the same download, to update
+ * its {@link FeedDeltas} when the key changed.
+ */
+@SuppressWarnings("serial")
+public class RecalculateMD5KeyTaskServlet extends HttpServlet {
+
+	private static final Logger log = Logger
+			.getLogger(RecalculateMD5KeyTaskServlet.class.getName());
+
+	public static final String URI = "/tasks/recalculatemd5";
+
+	public static final String QUEUE = "md5";
+
+	public static final String PARAM_REQUEST_URI = "requestUri";
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		final String requestUri = req.getParameter(PARAM_REQUEST_URI);
+		if (requestUri == null) {
+			return;
+		}
+
+		final PersistenceManager pm = PMF.get().getPersistenceManager();
+		final Query query = pm.newQuery(RequestHash.class);
+		query.setFilter("requestUri == requestUriParam");
+		query.declareParameters("String requestUriParam");
+		query.setUnique(true);
+		try {
+			final RequestHash requestHash = (RequestHash) query
+					.execute(requestUri);
+			if (requestHash == null) {
+				return;
+			}
+
+			final FeedDeltas.Collector collector = FeedDeltas.newCollector(
+					pm, requestUri);
+			final String md5 = new Md5Calculator(requestUri)
+					.calculateMd5(collector);
+			if (md5 == null) {
+				log.warning("Could not calculate md5 for " + requestUri);
+				resp.setStatus(500); // retry this task
+				return;
+			}
+
+			if (!md5.equals(requestHash.getMd5())
+					|| !collector.hasSnapshot(md5)) {
+				// Deltas are stored before the new key becomes visible
+				collector.update(md5);
+			}
+
+			if (!md5.equals(requestHash.getMd5())) {
+				log.info("New md5 for " + requestUri);
+				requestHash.setMd5(md5);
+				requestHash.setDate(new Date());
+				pm.makePersistent(requestHash);
+
+				final MemcacheService syncCache = MemcacheServiceFactory
+						.getMemcacheService();
+				syncCache.put(requestUri, requestHash,
+						Expiration.byDeltaSeconds(
+								RequestMD5KeyServlet.CACHE_EXPIRATION));
+			}
+		} finally {
+			query.closeAll();
+			pm.close();
+		}
+	}
+
+}
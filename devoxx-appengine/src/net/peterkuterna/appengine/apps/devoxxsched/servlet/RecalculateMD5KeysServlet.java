@@ -17,7 +17,7 @@
 package net.peterkuterna.appengine.apps.devoxxsched.servlet;
 
 import java.io.IOException;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.jdo.PersistenceManager;
@@ -27,12 +27,17 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.peterkuterna.appengine.apps.devoxxsched.model.RequestHash;
-import net.peterkuterna.appengine.apps.devoxxsched.util.Md5Calculator;
 
 import com.google.android.c2dm.server.PMF;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 
+/**
+ * Cron job that recalculates the MD5 keys of all known request uris. Every
+ * uri is handed to a separate {@link RecalculateMD5KeyTaskServlet} task, so
+ * a slow CFP response doesn't hold up the other uris.
+ */
 @SuppressWarnings("serial")
 public class RecalculateMD5KeysServlet extends HttpServlet {
 
@@ -40,26 +45,27 @@ public class RecalculateMD5KeysServlet extends HttpServlet {
 			throws IOException {
 		final PersistenceManager pm = PMF.get().getPersistenceManager();
 
+		final List<TaskOptions> tasks = new ArrayList<TaskOptions>();
 		final Query query = pm.newQuery(RequestHash.class);
 		try {
+			@SuppressWarnings("unchecked")
 			List<RequestHash> results = (List<RequestHash>) query.execute();
 			for (RequestHash requestHash : results) {
-				final Md5Calculator md5Calculator = new Md5Calculator(
-						requestHash.getRequestUri());
-				final String newMd5 = md5Calculator.calculateMd5();
-				if (newMd5 != null && !newMd5.equals(requestHash.getMd5())) {
-					requestHash.setMd5(newMd5);
-					requestHash.setDate(new Date());
-					pm.makePersistent(requestHash);
-
-					final MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-					syncCache.delete(requestHash.getRequestUri());
-				}
+				tasks.add(TaskOptions.Builder
+						.withUrl(RecalculateMD5KeyTaskServlet.URI)
+						.param(RecalculateMD5KeyTaskServlet.PARAM_REQUEST_URI,
+								requestHash.getRequestUri()));
 			}
 		} finally {
 			query.closeAll();
 			pm.close();
 		}
+
+		if (!tasks.isEmpty()) {
+			final Queue queue = QueueFactory
+					.getQueue(RecalculateMD5KeyTaskServlet.QUEUE);
+			queue.add(tasks);
+		}
 	}
 
-}
\ No newline at end of file
+}
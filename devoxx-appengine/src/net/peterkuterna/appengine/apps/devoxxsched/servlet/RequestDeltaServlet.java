@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.peterkuterna.appengine.apps.devoxxsched.servlet;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.peterkuterna.appengine.apps.devoxxsched.model.FeedDelta;
+import net.peterkuterna.appengine.apps.devoxxsched.util.FeedDeltas;
+
+import com.google.android.c2dm.server.PMF;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Returns the {@link FeedDelta} of a CFP REST url between the version the
+ * client has ({@code since}) and the version it wants ({@code to}), both
+ * given as MD5 keys. Responds with {@code 404} when no such delta is known,
+ * in which case the client should download the full feed.
+ * 
+ * @see FeedDeltas
+ */
+@SuppressWarnings("serial")
+public class RequestDeltaServlet extends HttpServlet {
+
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		final String requestUri = req.getParameter("requestUri");
+		final String since = req.getParameter("since");
+		final String to = req.getParameter("to");
+
+		if (requestUri == null || since == null || to == null
+				|| !RequestMD5KeyServlet.isValidRequestUri(requestUri)) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		final String content = getDeltaContent(requestUri, since, to);
+		if (content != null) {
+			resp.setContentType("application/json");
+			resp.setCharacterEncoding("UTF-8");
+			resp.getWriter().print(content);
+		} else {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+	private String getDeltaContent(String requestUri, String since, String to) {
+		final String cacheKey = "delta:" + requestUri + ":" + since + ":" + to;
+		final MemcacheService syncCache = MemcacheServiceFactory
+				.getMemcacheService();
+		String content = (String) syncCache.get(cacheKey);
+		if (content == null) {
+			final PersistenceManager pm = PMF.get().getPersistenceManager();
+			final Query query = pm.newQuery(FeedDelta.class);
+			query.setFilter("requestUri == requestUriParam && fromMd5 == sinceParam && toMd5 == toParam");
+			query.declareParameters("String requestUriParam, String sinceParam, String toParam");
+			try {
+				@SuppressWarnings("unchecked")
+				final List<FeedDelta> results = (List<FeedDelta>) query
+						.execute(requestUri, since, to);
+				if (!results.isEmpty()) {
+					content = results.get(0).getContent();
+					syncCache.put(cacheKey, content, Expiration
+							.byDeltaSeconds(RequestMD5KeyServlet.CACHE_EXPIRATION));
+				}
+			} finally {
+				query.closeAll();
+				pm.close();
+			}
+		}
+		return content;
+	}
+
+}
@@ -17,7 +17,13 @@
 package net.peterkuterna.appengine.apps.devoxxsched.servlet;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
@@ -33,64 +39,138 @@ import com.google.appengine.api.memcache.Expiration;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 
+/**
+ * Returns the MD5 key of the response of a CFP REST url.
+ * <p>
+ * Multiple {@code requestUri} parameters can be passed in a single request.
+ * The response then holds one line per requested uri, in the same order,
+ * containing either its MD5 key or {@code NOK}.
+ */
 @SuppressWarnings("serial")
 public class RequestMD5KeyServlet extends HttpServlet {
 
+	private static final String NOK = "NOK";
+
+	private static final int MAX_BATCH_SIZE = 10;
+
+	static final int CACHE_EXPIRATION = 180;
+
 	public void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws IOException {
-		final String requestUri = req.getParameter("requestUri");
-
-		if (requestUri != null
-				&& (requestUri.startsWith("http://cfp.devoxx.com") || requestUri
-						.startsWith("https://cfp.devoxx.com") && !requestUri.contains("/events/4/"))) {
-			final PersistenceManager pm = PMF.get().getPersistenceManager();
-
-			RequestHash requestHash = getRequestHash(requestUri);
-			if (requestHash == null) {
-				final Md5Calculator md5Calculator = new Md5Calculator(
-						requestUri);
-				final String md5 = md5Calculator.calculateMd5();
-				if (md5 != null) {
-					requestHash = new RequestHash(requestUri, md5, new Date());
-					if (requestHash != null && requestHash.getMd5() != null) {
-						try {
-							pm.makePersistent(requestHash);
-						} finally {
-							pm.close();
-						}
-					}
+		final String[] requestUris = req.getParameterValues("requestUri");
+		if (requestUris == null) {
+			return;
+		}
+
+		if (requestUris.length == 1) {
+			final String requestUri = requestUris[0];
+			if (isValidRequestUri(requestUri)) {
+				final RequestHash requestHash = getRequestHashes(
+						Arrays.asList(requestUri)).get(requestUri);
+				resp.getWriter().println(
+						requestHash != null ? requestHash.getMd5() : NOK);
+			}
+		} else if (requestUris.length <= MAX_BATCH_SIZE) {
+			final List<String> validUris = new ArrayList<String>();
+			for (String requestUri : requestUris) {
+				if (isValidRequestUri(requestUri)) {
+					validUris.add(requestUri);
 				}
 			}
 
-			if (requestHash != null) {
-				resp.getWriter().println(requestHash.getMd5());
-			} else {
-				resp.getWriter().println("NOK");
+			final Map<String, RequestHash> requestHashes = getRequestHashes(validUris);
+			final PrintWriter writer = resp.getWriter();
+			for (String requestUri : requestUris) {
+				final RequestHash requestHash = requestHashes.get(requestUri);
+				writer.println(requestHash != null ? requestHash.getMd5() : NOK);
 			}
+		} else {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Too many requestUri parameters");
 		}
 	}
 
-	private RequestHash getRequestHash(String requestUri) {
-		final MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-		RequestHash requestHash = (RequestHash) syncCache.get(requestUri);
-		if (requestHash == null) {
-			final PersistenceManager pm = PMF.get().getPersistenceManager();
+	static boolean isValidRequestUri(String requestUri) {
+		return requestUri.startsWith("http://cfp.devoxx.com")
+				|| requestUri.startsWith("https://cfp.devoxx.com")
+				&& !requestUri.contains("/events/4/");
+	}
+
+	/**
+	 * Look up the {@link RequestHash}es of the given uris, reading them with a
+	 * single memcache and a single datastore call. Uris without a stored hash
+	 * get one calculated and persisted. Uris for which no hash could be
+	 * calculated are missing from the returned map.
+	 */
+	private Map<String, RequestHash> getRequestHashes(List<String> requestUris) {
+		final Map<String, RequestHash> requestHashes = new HashMap<String, RequestHash>();
+		if (requestUris.isEmpty()) {
+			return requestHashes;
+		}
+
+		final MemcacheService syncCache = MemcacheServiceFactory
+				.getMemcacheService();
+		final Map<String, Object> cached = syncCache.getAll(requestUris);
+		for (Map.Entry<String, Object> entry : cached.entrySet()) {
+			requestHashes.put(entry.getKey(), (RequestHash) entry.getValue());
+		}
+
+		final List<String> missingUris = new ArrayList<String>();
+		for (String requestUri : requestUris) {
+			if (!requestHashes.containsKey(requestUri)
+					&& !missingUris.contains(requestUri)) {
+				missingUris.add(requestUri);
+			}
+		}
+		if (missingUris.isEmpty()) {
+			return requestHashes;
+		}
+
+		final PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			final Map<String, RequestHash> found = new HashMap<String, RequestHash>();
 			final Query query = pm.newQuery(RequestHash.class);
-			query.setFilter("requestUri == requestUriParam");
-			query.declareParameters("String requestUriParam");
-			query.setUnique(true);
-	
+			query.setFilter("requestUrisParam.contains(requestUri)");
+			query.declareParameters("java.util.List requestUrisParam");
 			try {
-				requestHash = (RequestHash) query.execute(requestUri);
-				if (requestHash != null) {
-					syncCache.put(requestUri, requestHash, Expiration.byDeltaSeconds(180));
+				@SuppressWarnings("unchecked")
+				final List<RequestHash> results = (List<RequestHash>) query
+						.execute(missingUris);
+				for (RequestHash requestHash : results) {
+					found.put(requestHash.getRequestUri(), requestHash);
 				}
 			} finally {
 				query.closeAll();
 			}
+
+			final List<RequestHash> calculated = new ArrayList<RequestHash>();
+			for (String requestUri : missingUris) {
+				if (!found.containsKey(requestUri)) {
+					final Md5Calculator md5Calculator = new Md5Calculator(
+							requestUri);
+					final String md5 = md5Calculator.calculateMd5();
+					if (md5 != null) {
+						final RequestHash requestHash = new RequestHash(
+								requestUri, md5, new Date());
+						calculated.add(requestHash);
+						found.put(requestUri, requestHash);
+					}
+				}
+			}
+			if (!calculated.isEmpty()) {
+				pm.makePersistentAll(calculated);
+			}
+
+			if (!found.isEmpty()) {
+				syncCache.putAll(found,
+						Expiration.byDeltaSeconds(CACHE_EXPIRATION));
+				requestHashes.putAll(found);
+			}
+		} finally {
+			pm.close();
 		}
 
-		return requestHash;
+		return requestHashes;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.peterkuterna.appengine.apps.devoxxsched.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import net.peterkuterna.appengine.apps.devoxxsched.model.FeedDelta;
+import net.peterkuterna.appengine.apps.devoxxsched.model.FeedSnapshot;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the {@link FeedSnapshot}s of the last versions of a feed, and the
+ * {@link FeedDelta}s from each of those versions to the current one.
+ * <p>
+ * Only feeds consisting of a JSON array of objects with an {@code id} member
+ * are supported. Entities are compared on a {@link JsonDigester} hash of
+ * their content, and are collected while the feed is digested, so it is
+ * downloaded only once.
+ */
+public class FeedDeltas {
+
+	private static final Logger log = Logger.getLogger(FeedDeltas.class
+			.getName());
+
+	public static final String ID = "id";
+	public static final String CHANGED = "changed";
+	public static final String REMOVED = "removed";
+
+	/**
+	 * Number of versions, including the current one, deltas are kept for.
+	 */
+	private static final int MAX_SNAPSHOTS = 5;
+
+	/**
+	 * Deltas above this size are not stored, since clients are better off
+	 * with the full feed, and datastore entities are limited in size.
+	 */
+	private static final int MAX_DELTA_SIZE = 512 * 1024;
+
+	private FeedDeltas() {
+	}
+
+	/**
+	 * Start collecting the entities of a new version of the feed. The
+	 * current snapshots are loaded first, so only the entities that changed
+	 * since one of them have to be kept while the feed is read.
+	 */
+	public static Collector newCollector(PersistenceManager pm,
+			String requestUri) {
+		final List<FeedSnapshot> snapshots;
+		final Query query = pm.newQuery(FeedSnapshot.class);
+		query.setFilter("requestUri == requestUriParam");
+		query.declareParameters("String requestUriParam");
+		query.setOrdering("date desc");
+		try {
+			@SuppressWarnings("unchecked")
+			final List<FeedSnapshot> results = (List<FeedSnapshot>) query
+					.execute(requestUri);
+			snapshots = new ArrayList<FeedSnapshot>(results);
+		} finally {
+			query.closeAll();
+		}
+		return new Collector(pm, requestUri, snapshots);
+	}
+
+	/**
+	 * Receives the entities of the feed from a {@link JsonDigester}, and
+	 * stores the new snapshot and deltas once the key of the feed is known.
+	 */
+	public static class Collector implements JsonDigester.ElementListener {
+
+		private final PersistenceManager pm;
+		private final String requestUri;
+		private final List<FeedSnapshot> snapshots;
+		private final List<JSONObject> snapshotHashes = new ArrayList<JSONObject>();
+
+		private final JSONObject hashes = new JSONObject();
+		private final Map<String, JSONObject> entities = new LinkedHashMap<String, JSONObject>();
+		private String error;
+		private boolean complete;
+
+		private Collector(PersistenceManager pm, String requestUri,
+				List<FeedSnapshot> snapshots) {
+			this.pm = pm;
+			this.requestUri = requestUri;
+			this.snapshots = snapshots;
+			for (FeedSnapshot snapshot : snapshots) {
+				try {
+					snapshotHashes.add(new JSONObject(snapshot
+							.getEntityHashes()));
+				} catch (JSONException e) {
+					log.warning("Corrupt snapshot for " + requestUri);
+					snapshotHashes.add(null);
+				}
+			}
+		}
+
+		/**
+		 * Check if a snapshot of the given version of the feed exists.
+		 */
+		public boolean hasSnapshot(String md5) {
+			for (FeedSnapshot snapshot : snapshots) {
+				if (md5.equals(snapshot.getMd5())) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public void onElement(String json, byte[] hash) {
+			if (error != null) {
+				return;
+			}
+			try {
+				final JSONObject entity = new JSONObject(json);
+				final String id = entity.get(ID).toString();
+				final String entityHash = new BigInteger(1, hash)
+						.toString(16);
+				hashes.put(id, entityHash);
+				for (JSONObject oldHashes : snapshotHashes) {
+					if (oldHashes != null
+							&& !entityHash.equals(oldHashes.optString(id,
+									null))) {
+						entities.put(id, entity);
+						break;
+					}
+				}
+			} catch (JSONException e) {
+				error = e.getMessage();
+			}
+		}
+
+		public void onEnd() {
+			complete = true;
+		}
+
+		/**
+		 * Store a snapshot of the collected feed as the current version, and
+		 * replace all deltas with ones towards this version.
+		 */
+		public void update(String md5) {
+			if (error != null || !complete) {
+				log.info("No deltas for " + requestUri + ": "
+						+ (error != null ? error : "not a JSON array"));
+				return;
+			}
+
+			final Date now = new Date();
+			final List<FeedDelta> deltas = new ArrayList<FeedDelta>();
+			final List<FeedSnapshot> obsolete = new ArrayList<FeedSnapshot>();
+			int kept = 0;
+			for (int i = 0; i < snapshots.size(); i++) {
+				final FeedSnapshot snapshot = snapshots.get(i);
+				final JSONObject oldHashes = snapshotHashes.get(i);
+				if (oldHashes == null || md5.equals(snapshot.getMd5())
+						|| kept >= MAX_SNAPSHOTS - 1) {
+					obsolete.add(snapshot);
+					continue;
+				}
+				kept++;
+
+				try {
+					final String delta = diff(oldHashes).toString();
+					if (delta.length() <= MAX_DELTA_SIZE) {
+						deltas.add(new FeedDelta(requestUri, snapshot
+								.getMd5(), md5, now, delta));
+					}
+				} catch (JSONException e) {
+					log.warning("No delta for " + requestUri + " from "
+							+ snapshot.getMd5() + ": " + e.getMessage());
+				}
+			}
+
+			final Query deltaQuery = pm.newQuery(FeedDelta.class);
+			deltaQuery.setFilter("requestUri == requestUriParam");
+			deltaQuery.declareParameters("String requestUriParam");
+			try {
+				deltaQuery.deletePersistentAll(requestUri);
+			} finally {
+				deltaQuery.closeAll();
+			}
+
+			pm.deletePersistentAll(obsolete);
+			pm.makePersistent(new FeedSnapshot(requestUri, md5, now, hashes
+					.toString()));
+			pm.makePersistentAll(deltas);
+		}
+
+		/**
+		 * Build the delta from the version with the given entity hashes to
+		 * the collected feed.
+		 */
+		private JSONObject diff(JSONObject oldHashes) throws JSONException {
+			final JSONArray changed = new JSONArray();
+			for (Map.Entry<String, JSONObject> entry : entities.entrySet()) {
+				if (!hashes.getString(entry.getKey()).equals(
+						oldHashes.optString(entry.getKey(), null))) {
+					changed.put(entry.getValue());
+				}
+			}
+
+			final JSONArray removed = new JSONArray();
+			for (Iterator<?> it = oldHashes.keys(); it.hasNext();) {
+				final String id = (String) it.next();
+				if (!hashes.has(id)) {
+					try {
+						removed.put(Long.parseLong(id));
+					} catch (NumberFormatException e) {
+						removed.put(id);
+					}
+				}
+			}
+
+			final JSONObject delta = new JSONObject();
+			delta.put(CHANGED, changed);
+			delta.put(REMOVED, removed);
+			return delta;
+		}
+
+	}
+
+}
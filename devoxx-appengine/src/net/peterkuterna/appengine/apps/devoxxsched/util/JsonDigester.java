@@ -0,0 +1,304 @@
+/*
+ * Copyright 2011 Peter Kuterna
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.peterkuterna.appengine.apps.devoxxsched.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Streaming, content based digest of a JSON document. Two documents that only
+ * differ in whitespace, string escapes or the order of object members get the
+ * same digest.
+ * <p>
+ * Every value is hashed on its own. Arrays feed the hashes of their elements
+ * in order, objects feed the hashes of their members sorted. Only the hashes
+ * of the members of the objects currently being read are kept in memory,
+ * never the document itself.
+ * <p>
+ * An {@link ElementListener} can be handed the elements of a document that
+ * is an array, one at a time, as they are read.
+ */
+public class JsonDigester {
+
+	/**
+	 * Receives the elements of an array document while it is digested.
+	 */
+	public interface ElementListener {
+
+		/**
+		 * Called for every element, with its source text and the hash a
+		 * document holding only that element would get.
+		 */
+		void onElement(String json, byte[] hash) throws IOException;
+
+		/**
+		 * Called once the whole array has been read. Not called for a
+		 * document that is no array, or that fails to parse.
+		 */
+		void onEnd() throws IOException;
+
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final Comparator<byte[]> HASH_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] lhs, byte[] rhs) {
+			for (int i = 0; i < lhs.length && i < rhs.length; i++) {
+				final int diff = (lhs[i] & 0xff) - (rhs[i] & 0xff);
+				if (diff != 0) {
+					return diff;
+				}
+			}
+			return lhs.length - rhs.length;
+		}
+	};
+
+	private final MessageDigest digest;
+
+	private Reader reader;
+	private int peeked = -1;
+	private StringBuilder capture;
+
+	/**
+	 * @param digest
+	 *            the digest that receives the hash of the document. It is
+	 *            also cloned to hash the nested values.
+	 */
+	public JsonDigester(MessageDigest digest) {
+		this.digest = digest;
+	}
+
+	/**
+	 * Read a complete JSON document from the reader and feed its hash to the
+	 * digest.
+	 */
+	public void digest(Reader reader) throws IOException {
+		digest(reader, null);
+	}
+
+	/**
+	 * Read a complete JSON document from the reader and feed its hash to the
+	 * digest, passing its elements to the listener if it is an array.
+	 */
+	public void digest(Reader reader, ElementListener listener)
+			throws IOException {
+		this.reader = new BufferedReader(reader, BUFFER_SIZE);
+		this.peeked = -1;
+		this.capture = null;
+		final int c = nextClean();
+		if (listener != null && c == '[') {
+			digest.update(readArray(listener));
+		} else {
+			back(c);
+			digest.update(readValue());
+		}
+		if (nextClean() != -1) {
+			throw new IOException("Trailing content after JSON value");
+		}
+		if (listener != null && c == '[') {
+			listener.onEnd();
+		}
+	}
+
+	private byte[] readValue() throws IOException {
+		final int c = nextClean();
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray(null);
+		case '"':
+			return readString('s');
+		case -1:
+			throw new IOException("Unexpected end of JSON");
+		default:
+			return readLiteral(c);
+		}
+	}
+
+	private byte[] readObject() throws IOException {
+		final List<byte[]> members = new ArrayList<byte[]>();
+		int c = nextClean();
+		if (c != '}') {
+			back(c);
+			do {
+				if (nextClean() != '"') {
+					throw new IOException("Expected JSON object key");
+				}
+				final byte[] key = readString('k');
+				if (nextClean() != ':') {
+					throw new IOException("Expected ':' in JSON object");
+				}
+				final byte[] value = readValue();
+				final MessageDigest member = newDigest();
+				member.update(key);
+				member.update(value);
+				members.add(member.digest());
+				c = nextClean();
+			} while (c == ',');
+			if (c != '}') {
+				throw new IOException("Expected '}' in JSON object");
+			}
+		}
+
+		Collections.sort(members, HASH_ORDER);
+		final MessageDigest object = newDigest();
+		object.update((byte) '{');
+		for (byte[] member : members) {
+			object.update(member);
+		}
+		return object.digest();
+	}
+
+	private byte[] readArray(ElementListener listener) throws IOException {
+		final MessageDigest array = newDigest();
+		array.update((byte) '[');
+		int c = nextClean();
+		if (c != ']') {
+			back(c);
+			do {
+				if (listener != null) {
+					capture = new StringBuilder();
+				}
+				final byte[] value = readValue();
+				array.update(value);
+				if (listener != null) {
+					final MessageDigest element = newDigest();
+					element.update(value);
+					final String json = capture.toString();
+					capture = null;
+					listener.onElement(json, element.digest());
+				}
+				c = nextClean();
+			} while (c == ',');
+			if (c != ']') {
+				throw new IOException("Expected ']' in JSON array");
+			}
+		}
+		return array.digest();
+	}
+
+	private byte[] readString(char type) throws IOException {
+		final MessageDigest string = newDigest();
+		string.update((byte) type);
+		while (true) {
+			int c = next();
+			if (c == -1) {
+				throw new IOException("Unterminated JSON string");
+			} else if (c == '"') {
+				return string.digest();
+			} else if (c == '\\') {
+				c = next();
+				switch (c) {
+				case 'b':
+					c = '\b';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'u':
+					final char[] hex = new char[4];
+					for (int i = 0; i < hex.length; i++) {
+						hex[i] = (char) next();
+					}
+					try {
+						c = Integer.parseInt(new String(hex), 16);
+					} catch (NumberFormatException e) {
+						throw new IOException("Illegal JSON escape "
+								+ Arrays.toString(hex));
+					}
+					break;
+				case -1:
+					throw new IOException("Unterminated JSON string");
+				default:
+					// '"', '\\' and '/' stand for themselves
+					break;
+				}
+			}
+			string.update((byte) (c >> 8));
+			string.update((byte) c);
+		}
+	}
+
+	private byte[] readLiteral(int c) throws IOException {
+		final MessageDigest literal = newDigest();
+		literal.update((byte) 'l');
+		while (c != -1 && ",:]}\"".indexOf(c) < 0
+				&& !Character.isWhitespace(c)) {
+			literal.update((byte) c);
+			c = next();
+		}
+		back(c);
+		return literal.digest();
+	}
+
+	private MessageDigest newDigest() throws IOException {
+		try {
+			final MessageDigest clone = (MessageDigest) digest.clone();
+			clone.reset();
+			return clone;
+		} catch (CloneNotSupportedException e) {
+			throw new IOException("Digest can't be cloned");
+		}
+	}
+
+	private int next() throws IOException {
+		final int c;
+		if (peeked != -1) {
+			c = peeked;
+			peeked = -1;
+		} else {
+			c = reader.read();
+		}
+		if (capture != null && c != -1) {
+			capture.append((char) c);
+		}
+		return c;
+	}
+
+	private int nextClean() throws IOException {
+		int c;
+		do {
+			c = next();
+		} while (c != -1 && Character.isWhitespace(c));
+		return c;
+	}
+
+	private void back(int c) {
+		if (capture != null && c != -1) {
+			capture.setLength(capture.length() - 1);
+		}
+		peeked = c;
+	}
+
+}
@@ -18,43 +18,104 @@ package net.peterkuterna.appengine.apps.devoxxsched.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.logging.Logger;
 
-import net.peterkuterna.appengine.apps.devoxxsched.c2dm.C2DMMessage;
-
-import org.apache.commons.io.IOUtils;
-
+/**
+ * Calculates the MD5 key of the response of a request uri. The response is
+ * digested while it is read, so it is never held in memory as a whole.
+ * <p>
+ * In normalizing mode the response is parsed as JSON and hashed with
+ * {@link JsonDigester}, which ignores whitespace, string escaping and the
+ * order of object members. The mode defaults to the
+ * {@value #PROPERTY_NORMALIZE_JSON} system property.
+ * <p>
+ * An {@link JsonDigester.ElementListener} can be handed the elements of a
+ * JSON array response during the same read, in either mode.
+ */
 public class Md5Calculator {
 
 	private static final Logger log = Logger.getLogger(Md5Calculator.class
 			.getName());
 
+	public static final String PROPERTY_NORMALIZE_JSON = "devoxxsched.md5.normalizejson";
+
+	private static final int BUFFER_SIZE = 8192;
+
 	private String requestUri;
+	private boolean normalizeJson;
 
 	public Md5Calculator(final String requestUri) {
+		this(requestUri, Boolean.getBoolean(PROPERTY_NORMALIZE_JSON));
+	}
+
+	public Md5Calculator(final String requestUri, final boolean normalizeJson) {
 		this.requestUri = requestUri;
+		this.normalizeJson = normalizeJson;
 	}
 
 	public String calculateMd5() {
-		final byte[] response = getResponse(requestUri);
+		return calculateMd5(null);
+	}
+
+	/**
+	 * Calculate the MD5 key of the response, passing its elements to the
+	 * listener while it is read when it is a JSON array.
+	 */
+	public String calculateMd5(final JsonDigester.ElementListener listener) {
+		final InputStream response = getResponse(requestUri);
 		if (response != null) {
 			try {
-				MessageDigest mdEnc = MessageDigest.getInstance("MD5");
-				mdEnc.update(response);
-				return new BigInteger(1, mdEnc.digest()).toString(16);
-			} catch (NoSuchAlgorithmException e) {
+				try {
+					return calculateMd5(response, listener);
+				} finally {
+					response.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
+	private String calculateMd5(final InputStream response,
+			final JsonDigester.ElementListener listener) throws IOException {
+		try {
+			final MessageDigest mdEnc = MessageDigest.getInstance("MD5");
+			if (normalizeJson) {
+				new JsonDigester(mdEnc).digest(new InputStreamReader(response,
+						"UTF-8"), listener);
+			} else {
+				final InputStream input = new DigestInputStream(response,
+						mdEnc);
+				if (listener != null) {
+					try {
+						new JsonDigester(MessageDigest.getInstance("MD5"))
+								.digest(new InputStreamReader(input, "UTF-8"),
+										listener);
+					} catch (IOException e) {
+						// Not JSON, the raw response still has a key
+					}
+				}
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				while (input.read(buffer) != -1) {
+					// Digested while reading
+				}
 			}
+			return new BigInteger(1, mdEnc.digest()).toString(16);
+		} catch (NoSuchAlgorithmException e) {
 		}
 		return null;
 	}
 
-	private byte[] getResponse(final String requestUri) {
+	private InputStream getResponse(final String requestUri) {
 		try {
 			URL url = new URL(requestUri);
 			HttpURLConnection connection = (HttpURLConnection) url
@@ -67,10 +128,9 @@ public class Md5Calculator {
 			connection
 					.setRequestProperty("Cache-Control", "no-cache,max-age=0");
 			connection.setRequestProperty("Pragma", "no-cache");
-			InputStream response = connection.getInputStream();
 			log.info("response = " + connection.getResponseCode());
 			if (connection.getResponseCode() == 200) {
-				return IOUtils.toByteArray(response);
+				return connection.getInputStream();
 			}
 		} catch (MalformedURLException e) {
 			e.printStackTrace();
@@ -81,4 +141,4 @@ public class Md5Calculator {
 		return null;
 	}
 
-}
\ No newline at end of file
+}